@@ -0,0 +1,121 @@
+package a2;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of reading sequences and of scoring one alignment or
+ * consensus: the kernels that every search runs at each node. Complete
+ * searches are in {@link SearchBenchmark}.
+ *
+ * The benchmarks are not built with the application. They need JMH 1.37
+ * (jmh-core, with jopt-simple and commons-math3, and
+ * jmh-generator-annprocess to compile), and are compiled together with the
+ * sources (without the tests) and run from the project directory, where
+ * the data files are:
+ * <pre>
+ * javac -cp $JMH -d bench-classes $(ls src/a2/*.java | grep -v Test) bench/a2/*.java
+ * java -cp bench-classes:$JMH org.openjdk.jmh.Main -prof gc
+ * </pre>
+ * where $JMH is the classpath of the JMH jars. The gc profiler adds the
+ * bytes allocated per operation to each score. A subset is chosen as
+ * usual, e.g. "KernelBenchmark.getScore -p reverse=true".
+ *
+ * Each problem is parameterized by the data file, the width W ("full" for
+ * 2N - 1, or "N+k" for N + k) and whether the reverse strand is used.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+	/**
+	 * A data file, for reading.
+	 */
+	@State(Scope.Benchmark)
+	public static class Input {
+		@Param({ "data/cs7x5.fa", "data/cs100x7.fa", "data/cs100x10.fa" })
+		String file;
+	}
+
+	/**
+	 * An alignment problem and a consensus problem on the same data, with a
+	 * random alignment and its consensus to score.
+	 */
+	@State(Scope.Benchmark)
+	public static class Problem {
+		@Param({ "data/cs7x5.fa", "data/cs100x7.fa", "data/cs100x10.fa" })
+		String file;
+		@Param({ "full", "N+2" })
+		String width;
+		@Param({ "false", "true" })
+		boolean reverse;
+
+		Alignment alignment;
+		Consensus consensus;
+		int[] offsets; 		// offset index of each sequence
+		int[][] profile; 	// profile of offsets
+		int[] symbols; 		// consensus of profile
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			Sequence[] dna = Sequence.readFile(file);
+			int N = dna[0].getLength();
+			int W = ScalingHarness.getWidth(width, N);
+			alignment = new Alignment(new PerfMeter(), dna, reverse, W);
+			consensus = new Consensus(new PerfMeter(), dna, reverse, W);
+			Random random = new Random(1); // the same alignment every run
+			offsets = new int[dna.length];
+			for (int i = 0; i < offsets.length; i++)
+				offsets[i] = random.nextInt((reverse ? 2 : 1) * (W - N + 1));
+			profile = alignment.getProfile(offsets);
+			symbols = alignment.getConsensus(profile);
+		}
+	}
+
+	@Benchmark
+	public Sequence[] readFile(Input input) throws IOException {
+		return Sequence.readFile(input.file);
+	}
+
+	@Benchmark
+	public int[][] alignmentGetProfile(Problem problem) {
+		return problem.alignment.getProfile(problem.offsets);
+	}
+
+	@Benchmark
+	public int[] alignmentGetConsensus(Problem problem) {
+		return problem.alignment.getConsensus(problem.profile);
+	}
+
+	@Benchmark
+	public int alignmentGetScore(Problem problem) {
+		return problem.alignment.getScore(problem.profile, problem.symbols);
+	}
+
+	@Benchmark
+	public int consensusGetScore(Problem problem) {
+		return problem.consensus.getScore(problem.symbols);
+	}
+
+	@Benchmark
+	public int[] consensusGetAlignment(Problem problem) {
+		return problem.consensus.getAlignment(problem.symbols);
+	}
+}
@@ -0,0 +1,223 @@
+package a2;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures how the searches scale: it sweeps the number of sequences T,
+ * their length N and the width W over workloads from
+ * {@link MotifGenerator}, runs {@link Consensus} and {@link Alignment} on
+ * each and records the nodes counted by {@link PerfMeter} and the time
+ * taken. Every run has a time limit, after which it is stopped and marked
+ * as such, so the sweep gets through sizes the exhaustive alignment cannot
+ * finish. Before its sweep each method is run once on the first point, and
+ * that run is discarded, so the compiler has warmed up before anything is
+ * timed.
+ *
+ * T is swept innermost, so the rows of a method, N and W form a curve; the
+ * ratio column is the growth in nodes from the previous T of the curve.
+ * Unlike {@link KernelBenchmark} this needs nothing but the sources
+ * (without the tests):
+ * <pre>
+ * javac -d classes $(ls src/a2/*.java | grep -v Test) bench/a2/ScalingHarness.java
+ * java -cp classes a2.ScalingHarness -t 4,8,16,32 -n 7,10 -o scaling.csv
+ * </pre>
+ */
+public class ScalingHarness {
+
+	/**
+	 * A command line application that runs the sweep.
+	 * -m alignment|consensus|both (the searches to run; default both)
+	 * -t <#,#,...> (numbers of sequences; default 4,8,16)
+	 * -n <#,#,...> (lengths of sequences; default 5,7)
+	 * -w <width,...> ("full" for 2N - 1 or "N+k" for N + k; default full)
+	 * -k <#> (motif length, as N less this; default 2)
+	 * -e <rate> (mutation rate of the motif; default 0.1)
+	 * -r (use and plant on the reverse strand)
+	 * -s <#> (seed of the workloads; default 1)
+	 * -l <seconds> (time limit of each run; default 10)
+	 * -o <filename> (also write the rows to a CSV file)
+	 *
+	 * @param args command line parameters
+	 */
+	public static void main(String[] args) {
+		String methods = "both";
+		int[] Ts = { 4, 8, 16 };
+		int[] Ns = { 5, 7 };
+		String[] widths = { "full" };
+		int shorter = 2;
+		double rate = 0.1;
+		boolean reverse = false;
+		long seed = 1;
+		double limit = 10;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].charAt(0) != '-' || args[i].length() < 2)
+				continue;
+			switch (args[i].charAt(1)) {
+			case 'm':
+				if (i + 1 < args.length)
+					methods = args[++i];
+				break;
+			case 't':
+				if (i + 1 < args.length)
+					Ts = parseInts(args[++i]);
+				break;
+			case 'n':
+				if (i + 1 < args.length)
+					Ns = parseInts(args[++i]);
+				break;
+			case 'w':
+				if (i + 1 < args.length)
+					widths = args[++i].split(",");
+				break;
+			case 'k':
+				if (i + 1 < args.length)
+					shorter = Integer.parseInt(args[++i]);
+				break;
+			case 'e':
+				if (i + 1 < args.length)
+					rate = Double.parseDouble(args[++i]);
+				break;
+			case 'r':
+				reverse = true;
+				break;
+			case 's':
+				if (i + 1 < args.length)
+					seed = Long.parseLong(args[++i]);
+				break;
+			case 'l':
+				if (i + 1 < args.length)
+					limit = Double.parseDouble(args[++i]);
+				break;
+			case 'o':
+				if (i + 1 < args.length)
+					file = args[++i];
+				break;
+			default:
+				System.err.println("Unknown option \"-" + args[i].charAt(1) + "\"");
+				System.err.println("Usage: ScalingHarness [-m alignment|consensus|both] [-t <T,...>] [-n <N,...>] [-w <width,...>] [-k <shorter>] [-e <mutation-rate>] [-r] [-s <seed>] [-l <seconds>] [-o <filename>]");
+				System.exit(1);
+			}
+		}
+
+		PrintWriter csv = null;
+		if (file != null) {
+			try {
+				csv = new PrintWriter(file);
+			} catch (FileNotFoundException e) {
+				System.err.println(e.getMessage());
+				System.exit(2);
+			}
+		}
+		String header = "method,T,N,W,reverse,score,nodes,pruned,leaves,seconds,nodes_per_sec,stopped,ratio";
+		System.out.println(header);
+		if (csv != null)
+			csv.println(header);
+
+		Map<String, Long> previous = new HashMap<String, Long>(); // nodes of the last T of each curve
+		for (String method : new String[] { "consensus", "alignment" }) {
+			if (!methods.equals("both") && !method.startsWith(methods.substring(0, 1)))
+				continue;
+			// warm up the JIT on the first point of the sweep, so that it is
+			// not timed interpreted; the row is discarded
+			run(method, generate(seed, Ts[0], Ns[0], shorter, rate, reverse), getWidth(widths[0], Ns[0]), reverse,
+					limit, new HashMap<String, Long>());
+			for (int N : Ns)
+				for (String width : widths)
+					for (int T : Ts) {
+						Sequence[] dna = generate(seed, T, N, shorter, rate, reverse);
+						int W = getWidth(width, N);
+						String row = run(method, dna, W, reverse, limit, previous);
+						System.out.println(row);
+						if (csv != null)
+							csv.println(row);
+					}
+		}
+		if (csv != null)
+			csv.close();
+	}
+
+	/**
+	 * Generate the workload of one point of the sweep.
+	 */
+	private static Sequence[] generate(long seed, int T, int N, int shorter, double rate, boolean reverse) {
+		String motif = MotifGenerator.randomMotif(seed, Math.max(1, N - shorter));
+		MotifGenerator generator = new MotifGenerator(seed, T, N, motif);
+		generator.setMutationRate(rate);
+		generator.setReverse(reverse);
+		return generator.generate();
+	}
+
+	/**
+	 * Run one search and describe it.
+	 *
+	 * @param previous
+	 *            the nodes of the last run of each curve, updated
+	 * @return the CSV row of the run
+	 */
+	private static String run(String method, Sequence[] dna, int W, boolean reverse, double limit,
+			Map<String, Long> previous) {
+		int T = dna.length;
+		int N = dna[0].getLength();
+		PerfMeter perf = new PerfMeter();
+		SearchControl control = new SearchControl(limit, null);
+		int score;
+		if (method.equals("consensus")) {
+			Consensus problem = new Consensus(perf, dna, reverse, W);
+			problem.setControl(control);
+			int[] start = new int[W];
+			Arrays.fill(start, -1);
+			Consensus.ConsensusScore result = problem.findConsensus(start, 0);
+			score = result == null ? -1 : result.actual;
+		} else {
+			Alignment problem = new Alignment(perf, dna, reverse, W);
+			problem.setControl(control);
+			int[] start = new int[T];
+			Arrays.fill(start, -1);
+			Alignment.AlignmentScore result = problem.findAlignment(start);
+			score = result == null ? -1 : result.actual;
+		}
+		perf.exit();
+		SearchMeter meter = perf.getMeter();
+		String curve = method + "," + N + "," + W;
+		Long before = previous.put(curve, meter.getFinds());
+		String ratio = before == null || before == 0 ? ""
+				: String.format(Locale.ROOT, "%.2f", (double) meter.getFinds() / before);
+		return String.format(Locale.ROOT, "%s,%d,%d,%d,%b,%d,%d,%d,%d,%.3f,%.0f,%b,%s", method, T, N, W, reverse,
+				score, meter.getFinds(), meter.getBreaks(), meter.getLeaves(), meter.getElapsed() / 1e9,
+				meter.getNodeRate(), control.isStopped(), ratio);
+	}
+
+	/**
+	 * Determine the width given by a parameter.
+	 *
+	 * @param width
+	 *            "full" for 2N - 1, or "N+k" for N + k
+	 * @param N
+	 *            the length of the sequences
+	 * @return the width
+	 */
+	static int getWidth(String width, int N) {
+		if (width.equals("full"))
+			return 2 * N - 1;
+		if (!width.startsWith("N+"))
+			throw new RuntimeException("Invalid width: " + width);
+		return Math.min(2 * N - 1, N + Integer.parseInt(width.substring(2)));
+	}
+
+	/**
+	 * Parse a comma-separated list of numbers.
+	 */
+	private static int[] parseInts(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+}
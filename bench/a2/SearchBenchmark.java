@@ -0,0 +1,83 @@
+package a2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of complete searches on one thread, exploring the most
+ * promising child first and starting from a score of 0 (no greedy seed).
+ * Built and run as described for {@link KernelBenchmark}.
+ *
+ * Besides the file, width and strands, the problem is parameterized by
+ * the number of sequences searched: the first so many of the file, or all
+ * of them for 0. An exhaustive alignment of all 100 sequences does not
+ * finish, and neither does a consensus of all of cs100x10 in a sensible
+ * time, so the default takes the first 8; e.g. "-p sequences=0 -p
+ * file=data/cs100x7.fa" gives the full consensus workload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+	@Param({ "data/cs7x5.fa", "data/cs100x7.fa", "data/cs100x10.fa" })
+	String file;
+	@Param({ "full", "N+2" })
+	String width;
+	@Param({ "false", "true" })
+	boolean reverse;
+	@Param({ "8" })
+	int sequences;
+
+	private Sequence[] dna;
+	private int W;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dna = Sequence.readFile(file);
+		if (sequences > 0 && sequences < dna.length)
+			dna = Arrays.copyOf(dna, sequences);
+		W = ScalingHarness.getWidth(width, dna[0].getLength());
+	}
+
+	/**
+	 * A prefix or alignment with nothing assigned.
+	 */
+	private static int[] start(int n) {
+		int[] s = new int[n];
+		Arrays.fill(s, -1);
+		return s;
+	}
+
+	// a new problem for every search: the best score of an Alignment only
+	// ever rises, and would prune the next search
+
+	@Benchmark
+	public int findConsensus() {
+		Consensus problem = new Consensus(new PerfMeter(), dna, reverse, W);
+		return problem.findConsensus(start(W), 0).actual;
+	}
+
+	@Benchmark
+	public int findAlignment() {
+		Alignment problem = new Alignment(new PerfMeter(), dna, reverse, W);
+		return problem.findAlignment(start(dna.length)).actual;
+	}
+}
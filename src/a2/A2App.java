@@ -1,6 +1,8 @@
 package a2;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import a2.Alignment.AlignmentScore;
 import a2.Consensus.ConsensusScore;
@@ -14,6 +16,19 @@ public class A2App {
 	 * -t <#> (limit number of sequences used; only effective for alignment) 
 	 * -w <#> (limit alignment or consensus width to this value) 
 	 * -r (use reverse complement) 
+	 * -u simple|pairwise (bound used to prune alignment search; default pairwise)
+	 * -j <#> (search with this many threads) 
+	 * -s <#> (symbols of the consensus assigned before splitting into parallel tasks) 
+	 * -b <#> (search consensus best-first, keeping at most this many prefixes waiting) 
+	 * -d <#> (anytime search: report each better solution and stop after this many seconds) 
+	 * -o natural|value (order in which children are searched; default value, most promising first) 
+	 * -i greedy|none (start the search from the score of a greedy solution; default greedy) 
+	 * -x <#> (alignment: remember searched profiles in a table of 2^# slots) 
+	 * -p array|packed (how profiles are counted, in the alignment search too; default array) 
+	 * -k scalar|vector (consensus scoring kernel; default scalar; vector needs vector/ compiled and --add-modules jdk.incubator.vector) 
+	 * -e <#> (record subtrees with fewer than # sequences or symbols placed as JFR events; default 2) 
+	 * -g <filename> (write the nodes entered, pruned and leaves of each depth; JSON if .json, otherwise CSV) 
+	 * -l (show the running search as the JMX MBean a2:type=Search, e.g. in JConsole) 
 	 * See usage message for more information.
 	 * 
 	 * @param args command line parameters
@@ -30,6 +45,19 @@ public class A2App {
 		int W = -1; // limit width of consensus/alignment (default is N * 2 - 1
 					// where N is the length of sequence)
 		boolean reverse = false; // use reverse complement
+		String bound = "pairwise"; // alignment bound
+		int threads = 1; // number of search threads
+		int depth = -1; // consensus split depth (default: enough tasks for all threads)
+		int frontier = 0; // most prefixes waiting in best-first consensus search (0 for depth-first)
+		double budget = -1; // seconds before an anytime search stops (negative when not anytime)
+		String order = "value"; // order of children in the search
+		String incumbent = "greedy"; // heuristic solution that seeds the search
+		int tableBits = -1; // log2 of transposition table slots (negative for none)
+		boolean packed = false; // count profiles in packed words
+		boolean vector = false; // score consensus prefixes with the vector API, if available
+		int eventDepth = 2; // depth down to which subtrees are JFR events
+		String statsFile = null; // file for per-depth statistics
+		boolean live = false; // monitor the search over JMX
 
 		// parse the parameters
 		for (int i = 0; i < args.length; i++) {
@@ -55,6 +83,57 @@ public class A2App {
 				case 'r':
 					reverse = true;
 					break;
+				case 'u':
+					if (i + 1 < args.length)
+						bound = args[++i];
+					break;
+				case 'j':
+					if (i + 1 < args.length)
+						threads = Integer.parseInt(args[++i]);
+					break;
+				case 's':
+					if (i + 1 < args.length)
+						depth = Integer.parseInt(args[++i]);
+					break;
+				case 'b':
+					if (i + 1 < args.length)
+						frontier = Integer.parseInt(args[++i]);
+					break;
+				case 'd':
+					if (i + 1 < args.length)
+						budget = Double.parseDouble(args[++i]);
+					break;
+				case 'i':
+					if (i + 1 < args.length)
+						incumbent = args[++i];
+					break;
+				case 'x':
+					if (i + 1 < args.length)
+						tableBits = Integer.parseInt(args[++i]);
+					break;
+				case 'p':
+					if (i + 1 < args.length)
+						packed = args[++i].startsWith("p");
+					break;
+				case 'k':
+					if (i + 1 < args.length)
+						vector = args[++i].startsWith("v");
+					break;
+				case 'o':
+					if (i + 1 < args.length)
+						order = args[++i];
+					break;
+				case 'e':
+					if (i + 1 < args.length)
+						eventDepth = Integer.parseInt(args[++i]);
+					break;
+				case 'g':
+					if (i + 1 < args.length)
+						statsFile = args[++i];
+					break;
+				case 'l':
+					live = true;
+					break;
 				default:
 					System.err.println("Unknown option \"-" + args[i].charAt(1)
 							+ "\"");
@@ -64,7 +143,7 @@ public class A2App {
 
 		if (file == null || method == null) {
 			System.err
-					.println("Usage: A2App -f <sequence-filename> -m alignment|consensus [-t <limit-sequences>] [-w <limit-width>] [-r]");
+					.println("Usage: A2App -f <sequence-filename> -m alignment|consensus [-t <limit-sequences>] [-w <limit-width>] [-r] [-u simple|pairwise] [-j <threads> [-s <split-depth>]] [-b <max-frontier>] [-d <seconds>] [-o natural|value] [-i greedy|none] [-x <table-bits>] [-p array|packed] [-k scalar|vector] [-e <event-depth>] [-g <stats-file>] [-l]");
 			System.exit(1);
 		}
 
@@ -95,35 +174,169 @@ public class A2App {
 
 		if (method != null) {
 			PerfMeter perf = new PerfMeter();
+			SearchControl control = null;
+			DepthStats stats = null;
+			SearchMonitor monitor = null;
+			BranchOrder branch = order.startsWith("n") ? BranchOrder.NATURAL : BranchOrder.BEST_FIRST;
+			if (budget >= 0) { // anytime: report progress and stop on time
+				control = new SearchControl(budget, new SearchControl.Listener() {
+					public void improved(int score, int[] path, long elapsed) {
+						System.out.println(String.format("Improved score %d at %.3f secs", score, elapsed / 1e9));
+					}
+				});
+				// on interrupt, stop the search and let it print its best
+				final SearchControl cancel = control;
+				final Thread search = Thread.currentThread();
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						cancel.cancel();
+						try {
+							search.join(5000);
+						} catch (InterruptedException e) {
+						}
+					}
+				});
+			} else if (live) // a control to cancel the search with
+				control = new SearchControl(null);
 			if (method.startsWith("c")) { // consensus
 				Consensus problem = new Consensus(perf, seqs, reverse, W);
+				problem.setControl(control);
+				problem.setOrder(branch);
+				problem.setPacked(packed);
+				problem.setVector(vector);
+				problem.setEventDepth(eventDepth);
+				stats = statsFile != null ? new DepthStats(W + 1) : null;
+				problem.setDepthStats(stats);
+				if (live)
+					monitor = startMonitor("consensus", perf, control);
 				int[] start = new int[W];
 				for (int i = 0; i < start.length; i++)
 					start[i] = -1; // marker for end of solution
+				// a greedy consensus gives a cutoff before searching
+				ConsensusScore greedy = null;
+				int cutoff = 0;
+				if (incumbent.startsWith("g")) {
+					greedy = problem.findGreedy();
+					cutoff = greedy.actual;
+					System.out.println("Greedy score " + greedy.actual);
+				}
 				// Start searching
-				ConsensusScore score = problem.findConsensus(start, 0); 
-				printConsensus(score.path);
-				printAlignment(problem.getAlignment(score.path), seqs, W);
-				System.out
-						.println(String.format("Score %d (%4.1f%%)",
-								score.actual, score.actual * 100.0
-										/ (seqs.length * N)));
+				ConsensusScore score;
+				if (frontier > 0)
+					score = problem.findConsensusBestFirst(start, cutoff, frontier);
+				else if (threads > 1) {
+					if (depth < 0) // several tasks for every thread
+						for (depth = 0; Math.pow(Sequence.alpha.length, depth) < 8 * threads; depth++)
+							;
+					ForkJoinPool pool = new ForkJoinPool(threads);
+					score = problem.findConsensus(start, cutoff, pool, depth);
+					pool.shutdown();
+				} else
+					score = problem.findConsensus(start, cutoff);
+				if (score == null) // stopped before reaching the greedy score
+					score = greedy;
+				printStopped(control);
+				if (score != null) {
+					printConsensus(score.path);
+					printAlignment(problem.getAlignment(score.path), seqs, W);
+					System.out
+							.println(String.format("Score %d (%4.1f%%)",
+									score.actual, score.actual * 100.0
+											/ (seqs.length * N)));
+				}
+				if (threads > 1)
+					for (Map.Entry<String, Long> e : problem.getThreadNodes().entrySet())
+						System.out.println("#NODES\t" + e.getKey() + "\t" + e.getValue());
 			} else if (method.startsWith("a")) { // alignment
 				Alignment problem = new Alignment(perf, seqs, reverse, W);
+				problem.setControl(control);
+				problem.setOrder(branch);
+				problem.setPacked(packed);
+				problem.setEventDepth(eventDepth);
+				stats = statsFile != null ? new DepthStats(T + 1) : null;
+				problem.setDepthStats(stats);
+				if (live)
+					monitor = startMonitor("alignment", perf, control);
+				if (bound.startsWith("s"))
+					problem.setBound(new AlignmentBound.PerSequence(N, T));
+				TranspositionTable table = tableBits >= 0 ? new TranspositionTable(tableBits) : null;
+				problem.setTranspositionTable(table);
 				int[] start = new int[T];
 				for (int i = 0; i < start.length; i++)
 					start[i] = -1; // marker for end of solution
+				// a greedy alignment gives the score to beat before searching
+				AlignmentScore greedy = null;
+				if (incumbent.startsWith("g")) {
+					greedy = problem.findGreedy();
+					problem.setIncumbent(greedy.actual);
+					System.out.println("Greedy score " + greedy.actual);
+				}
 				// Start searching
-				AlignmentScore score = problem.findAlignment(start); 
-				printAlignment(score.path, seqs, W);
-				printConsensus(problem.getConsensus(problem.getProfile(score.path)));
-				System.out.println(String.format("Score %d (%4.1f%%)",
-						score.actual, score.actual * 100.0 / (T * N)));
+				ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+				AlignmentScore score = problem.findAlignment(start, pool);
+				if (score == null) // stopped before reaching the greedy score
+					score = greedy;
+				if (pool != null)
+					pool.shutdown();
+				printStopped(control);
+				if (score != null) {
+					printAlignment(score.path, seqs, W);
+					printConsensus(problem.getAlignedConsensus(score.path));
+					System.out.println(String.format("Score %d (%4.1f%%)",
+							score.actual, score.actual * 100.0 / (T * N)));
+				}
+				if (table != null)
+					System.out.println(String.format("#TABLE\t%d probes, %d hits (%.1f%%), %d stores, %d bytes",
+							table.getProbes(), table.getHits(), table.getHits() * 100.0 / Math.max(1, table.getProbes()),
+							table.getStores(), table.getBytes()));
 			}
 			perf.printReport(); // performance report
+			if (monitor != null)
+				monitor.unregister();
+			if (statsFile != null) {
+				try {
+					stats.write(statsFile);
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+				}
+			}
 		}
 	}
 
+	/**
+	 * Register a search with the platform MBean server, so that it can be
+	 * watched and cancelled while it runs.
+	 * 
+	 * @param search
+	 *            "alignment" or "consensus"
+	 * @param perf
+	 *            the performance monitor of the search
+	 * @param control
+	 *            the control of the search
+	 * @return the registered monitor
+	 */
+	public static SearchMonitor startMonitor(String search, PerfMeter perf, SearchControl control) {
+		SearchMonitor monitor = new SearchMonitor(search, perf.getMeter(), control);
+		System.out.println("#JMX\t" + monitor.register());
+		return monitor;
+	}
+
+	/**
+	 * Print why and when a search was stopped early, and how far the best
+	 * solution found may be from the optimal one.
+	 * 
+	 * @param control
+	 *            the control of the search (may be null)
+	 */
+	public static void printStopped(SearchControl control) {
+		if (control == null || !control.isStopped())
+			return;
+		System.out.println(String.format("Stopped at %.3f secs: best score %d, optimal at most %d higher",
+				control.getElapsed() / 1e9, control.getBest(), control.getGap()));
+		if (control.getBest() < 0)
+			System.out.println("No solution found");
+	}
+
 	/**
 	 * Print the consensus sequence
 	 * 
@@ -2,6 +2,10 @@ package a2;
 
 
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Alignment {
 
@@ -13,7 +17,19 @@ public class Alignment {
 	private boolean reverse = false;// whether the reverse strand should be
 									// considered
 
-    private int currentBest = 0;
+    // best score seen by any search thread; only ever increases
+    private final AtomicInteger currentBest = new AtomicInteger(0);
+    private AlignmentBound bound = null; // estimate of what unplaced sequences can add
+    private SearchControl control = null; // stops the search early, if set
+    private BranchOrder order = BranchOrder.BEST_FIRST; // order in which children are explored
+    private boolean canonical = false; // search one alignment of each set of equivalent ones
+    private TranspositionTable table = null; // subtrees searched so far, if set
+    private long[][] keys = null; 	// key of placing each sequence at each offset index
+    private long canonicalKey; 		// added to the keys of canonical searches
+    private boolean packed = false; // count profiles with a PackedProfile, in the search too
+    private long[][][] increments = null; // [sequence][strand * 2 + parity]: packed symbols
+    private int eventDepth = 2; 	// subtrees above this level are timed as JFR events
+    private DepthStats stats = null; // counts of each level of the tree, if set
 
 	/**
 	 * Construct an alignment from a list of DNA sequences.
@@ -64,6 +80,107 @@ public class Alignment {
 		this.reverse = reverse;
 	}
 
+	/**
+	 * Set the estimate used to prune the search. The default is a
+	 * {@link PairwiseBound}, created at the start of the first search.
+	 *
+	 * @param bound
+	 *            the bound, or null for the default
+	 */
+	public void setBound(AlignmentBound bound) {
+		this.bound = bound;
+	}
+
+	/**
+	 * Get the estimate used to prune the search.
+	 */
+	public AlignmentBound getBound() {
+		if (bound == null)
+			bound = new PairwiseBound(dna, reverse, W);
+		return bound;
+	}
+
+	/**
+	 * Set a control that can stop the search early (on a deadline or when
+	 * cancelled) and that is told of every better alignment found. A
+	 * stopped search returns the best alignment found before it stopped.
+	 *
+	 * @param control
+	 *            the control, or null to always search to completion
+	 */
+	public void setControl(SearchControl control) {
+		this.control = control;
+	}
+
+	/**
+	 * Set the policy for the order in which the children of a node are
+	 * explored. Children are valued by how much placing the next sequence
+	 * raises the score. The default explores the highest first.
+	 *
+	 * @param order
+	 *            the policy
+	 */
+	public void setOrder(BranchOrder order) {
+		this.order = order;
+	}
+
+	/**
+	 * Set how deep into the tree the search of a subtree is recorded as a
+	 * JFR event (see {@link SearchEvents}). The default of 2 records the
+	 * root and its children.
+	 *
+	 * @param depth
+	 *            subtrees of nodes with fewer than depth sequences placed
+	 *            are recorded; 0 for none
+	 */
+	public void setEventDepth(int depth) {
+		this.eventDepth = depth;
+	}
+
+	/**
+	 * Set statistics that count the nodes of each level of the search.
+	 *
+	 * @param stats
+	 *            statistics with (at least) one depth more than there are
+	 *            sequences, or null to not count
+	 */
+	public void setDepthStats(DepthStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Set a table of the subtrees searched so far. A node with the same
+	 * profile as one searched before is pruned if nothing below that one
+	 * could beat the best score. The key of a node is the sum of a random
+	 * number for every symbol in every column of its profile, so equal
+	 * profiles have equal keys, and placing a sequence adds one number
+	 * that is computed in advance for each sequence and offset.
+	 *
+	 * @param table
+	 *            the table (only to be used for this alignment), or null to
+	 *            search without one
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+		if (table == null || keys != null)
+			return;
+		Random random = new Random(W); // the same keys in every run
+		long[][] symbolKeys = new long[W][Sequence.alpha.length];
+		for (int j = 0; j < W; j++)
+			for (int a = 0; a < Sequence.alpha.length; a++)
+				symbolKeys[j][a] = random.nextLong();
+		canonicalKey = random.nextLong();
+		keys = new long[dna.length][(reverse ? 2 : 1) * (W - N + 1)];
+		for (int i = 0; i < dna.length; i++)
+			for (int offset = 0; offset < keys[i].length; offset++) {
+				boolean strand = offset <= W - N;
+				int column = strand ? offset : offset - (W - N + 1);
+				long[] words = dna[i].getPackedWords(strand);
+				for (int j = 0; j < N; j++)
+					keys[i][offset] += symbolKeys[j + column][Sequence.codeAt(words, j)];
+			}
+	}
+
 	/**
 	 * Get number of symbols in each sequence (N)
 	 */
@@ -101,15 +218,11 @@ public class Alignment {
 		// Problem 2: Your code here
 
         for (int j=0; j <profile[0].length; j++) {  //Column
-            for (int a=0; a<profile.length; a++) {   //Letter
-                if (a == 0) {
+            sym[j] = 1;
+            for (int a=1; a<profile.length; a++) {   //Letter
+                if (profile[a][j] > profile[sym[j]-1][j]) { // first symbol with the max count
                     sym[j] = a+1;
                 }
-                else {
-                    if (profile[a][j] > profile[a-1][j]) {
-                        sym[j] = a+1;
-                    }
-                }
             }
         }
 		return sym;
@@ -127,30 +240,95 @@ public class Alignment {
 		int[][] profile = new int[Sequence.alpha.length][W]; //4, 2 * N - 1
 		//Problem 1: Your code here
 
-        char nucleotide;
-        int nucleotideIdx;
-
-        //If s[i] >= 0 AND s[i] > W-N, then do getSymbolIndex(j, false)
-        //else, if s[i] >= 0, then do getSymbolIndex(j, true)
-        //You also need to +=1 profile[a-1][j + s[i] - (W - N + 1) (this goes in the first if statement)
-        //In the else if, update profile[a-1][j+s[i]] = profile[a-1][j+s[i]] + 1
-         for (int i = 0; i<dna.length; i++) {
+        // The offset s[i] places sequence i at column s[i] (original strand),
+        // offsets beyond W-N denote the reverse strand at column s[i]-(W-N+1).
+        // Symbols are read straight from the packed words of the strand.
+        for (int i = 0; i<dna.length; i++) {
+            int offset = s[i];
+            if (offset < 0)
+                continue;
+            boolean strand = offset <= W - N;
+            int column = strand ? offset : offset - (W - N + 1);
+            long[] words = dna[i].getPackedWords(strand);
             for (int j=0; j<N;j++) {
-                int offset = s[i];
-                if (offset >= 0 && offset > W - this.getN()) {
-                    nucleotideIdx = dna[i].getSymbolIndex(j, false);
-                    profile[nucleotideIdx-1][j+offset-(W-N+1)] = profile[nucleotideIdx-1][j+offset - (W-N+1)] + 1;
-                }
-                else if (offset >=0) {
-                    nucleotideIdx = dna[i].getSymbolIndex(j, true);
-                    profile[nucleotideIdx-1][j+offset] +=1;
-                }
+                profile[Sequence.codeAt(words, j)][j + column] += 1;
             }
         }
 
 		return profile;
 	}
 
+	/**
+	 * Choose how the search and {@link #getAlignedConsensus(int[])} count
+	 * the profile of an alignment: with a {@link PackedProfile} (at most 255
+	 * sequences) or with the arrays of {@link #getProfile(int[])}. The
+	 * search finds the same alignment either way; the packed counts place a
+	 * sequence a word of two columns at a time.
+	 *
+	 * @param packed
+	 *            true for the packed profile
+	 */
+	public void setPacked(boolean packed) {
+		if (packed && dna.length > PackedProfile.MAX_COUNT)
+			throw new RuntimeException("Too many sequences for a packed profile");
+		this.packed = packed;
+	}
+
+	/**
+	 * Determine the profile of a specified alignment with its counts packed
+	 * into words.
+	 *
+	 * @param s
+	 *            the alignment represented by offset indices
+	 * @return the packed profile
+	 */
+	public PackedProfile getPackedProfile(int[] s) {
+		if (dna.length > PackedProfile.MAX_COUNT) // the counts would carry into the next symbol
+			throw new RuntimeException("Too many sequences for a packed profile");
+		if (increments == null) { // each sequence is packed once
+			long[][][] inc = new long[dna.length][4][];
+			for (int i = 0; i < dna.length; i++)
+				for (int k = 0; k < 4; k++)
+					inc[i][k] = PackedProfile.increment(dna[i], k < 2, k % 2);
+			increments = inc;
+		}
+		PackedProfile profile = new PackedProfile(W);
+		for (int i = 0; i < dna.length; i++)
+			if (s[i] >= 0)
+				profile.add(increment(i, s[i]), column(s[i]));
+		return profile;
+	}
+
+	/**
+	 * The first column of a sequence placed at an offset index.
+	 */
+	private int column(int offset) {
+		return offset <= W - N ? offset : offset - (W - N + 1);
+	}
+
+	/**
+	 * The packed increment of a sequence placed at an offset index (see
+	 * {@link PackedProfile#increment}); {@link #getPackedProfile(int[])}
+	 * must have been called.
+	 */
+	private long[] increment(int i, int offset) {
+		return increments[i][(offset <= W - N ? 0 : 2) + column(offset) % 2];
+	}
+
+	/**
+	 * Find the consensus of an alignment, i.e. the symbol with the max count
+	 * in each column of its profile.
+	 *
+	 * @param s
+	 *            the alignment represented by offset indices
+	 * @return an array with symbol indices, identifying the consensus
+	 */
+	public int[] getAlignedConsensus(int[] s) {
+		if (packed)
+			return getPackedProfile(s).getConsensus();
+		return getConsensus(getProfile(s));
+	}
+
 	/**
 	 * Determine the score of a consensus given a profile
 	 *
@@ -221,19 +399,220 @@ public class Alignment {
      *      the current score at this point in the findAlignment process.
      *
      * @param length
-     *      the the length of the next node in the tree.
+     *      the most that the sequences not yet placed can add to the score
+     *      (see {@link AlignmentBound}).
      *
      *
      * @return true if we think we can get a better comparison, else return false
      */
 
-    private boolean chanceOfImproving(AlignmentScore current, int length) {
-        if (current.actual + length < this.currentBest) {
+    private boolean chanceOfImproving(int current, int length) {
+        if (current + length < this.currentBest.get()) {
             return false;
         }
         return true;
     }
 
+    /**
+     * Raise the best score seen so far, which tightens pruning in every
+     * thread searching this alignment.
+     *
+     * @param level
+     *      the level of the node, or -1 for a score given from outside
+     * @param score
+     *      the score of a node that has been reached
+     */
+    private void improve(int level, int score) {
+        int best = currentBest.get();
+        while (score > best) {
+            if (currentBest.compareAndSet(best, score)) {
+                SearchEvents.incumbent("alignment", level, score);
+                return;
+            }
+            best = currentBest.get();
+        }
+    }
+
+    /**
+     * Record that a node has been pruned.
+     *
+     * @param level
+     *      the level of the node
+     * @param bound
+     *      the most any alignment below the node can score
+     * @param best
+     *      the score it had to beat
+     */
+    private void pruned(int level, int bound, int best) {
+        SearchEvents.prune("alignment", level, bound, best);
+        if (stats != null)
+            stats.prune(level, best - bound);
+    }
+
+    /**
+     * Add the symbols of a sequence to a profile, keeping the max count of
+     * each column up to date.
+     *
+     * @param i
+     *      the sequence
+     * @param offset
+     *      the offset index of the sequence
+     * @param profile
+     *      the profile to update
+     * @param colMax
+     *      the max count of each column of profile
+     * @return the increase in score
+     */
+    private int place(int i, int offset, int[][] profile, int[] colMax) {
+        boolean strand = offset <= W - N;
+        int column = strand ? offset : offset - (W - N + 1);
+        long[] words = dna[i].getPackedWords(strand);
+        int gain = 0;
+        for (int j = 0; j < N; j++) {
+            int count = ++profile[Sequence.codeAt(words, j)][j + column];
+            if (count > colMax[j + column]) {
+                colMax[j + column] = count;
+                gain++;
+            }
+        }
+        return gain;
+    }
+
+    /**
+     * Determine how much placing a sequence would raise the score, without
+     * changing the profile.
+     *
+     * @return the increase in score
+     */
+    private int gain(int i, int offset, int[][] profile, int[] colMax) {
+        boolean strand = offset <= W - N;
+        int column = strand ? offset : offset - (W - N + 1);
+        long[] words = dna[i].getPackedWords(strand);
+        int gain = 0;
+        for (int j = 0; j < N; j++)
+            if (profile[Sequence.codeAt(words, j)][j + column] == colMax[j + column])
+                gain++;
+        return gain;
+    }
+
+    /**
+     * Determine whether a child leads to canonical alignments only. Shifting
+     * every sequence by the same number of columns, or (with the reverse
+     * strand) flipping every sequence to the other strand and mirroring the
+     * columns, gives an alignment with the same score. Only alignments with
+     * the first sequence on the original strand and some sequence in the
+     * first column are searched, which is one or more of every set of
+     * equivalent alignments. This applies when the search starts with no
+     * sequence placed; otherwise every child is searched.
+     *
+     * A child with no sequence in the first column is cut as soon as none
+     * of the sequences still to be placed below it can take that column.
+     * Each of them can (offset 0, or W - N + 1 on the reverse strand), so
+     * on the original strand alone this only cuts the last sequence; the
+     * strand pin at level 0 is what halves the search with the reverse
+     * strand.
+     *
+     * @param s
+     *      the offset indices of the node
+     * @param level
+     *      the number of sequences placed at the node
+     * @param offset
+     *      the offset index of the next sequence
+     * @return true if the child is to be searched
+     */
+    private boolean isCanonical(int[] s, int level, int offset) {
+        if (!canonical)
+            return true;
+        if (level == 0 && offset > W - N) // the mirror image has the first sequence reversed
+            return false;
+        if (offset == 0 || offset == W - N + 1)
+            return true;
+        for (int i = 0; i < level; i++)
+            if (s[i] == 0 || s[i] == W - N + 1)
+                return true;
+        // no sequence in the first column yet: one placed below must take it
+        return level < s.length - 1;
+    }
+
+    /**
+     * Arrange the children of a node in the order they are to be explored.
+     * Child i places the next sequence at offset index i, as in
+     * {@link #expand(int[])}.
+     *
+     * @param level
+     *      the number of sequences placed at the node
+     * @param values
+     *      receives the value of each child
+     * @param arranged
+     *      receives the offset indices in the order to explore them
+     */
+    private void arrange(int level, Arena arena, int[] values, int[] arranged) {
+        if (order != BranchOrder.NATURAL)
+            for (int i = 0; i < values.length; i++)
+                values[i] = arena.packed != null ? arena.packed.gain(increment(level, i), column(i))
+                        : gain(level, i, arena.profile, arena.colMax);
+        order.arrange(values, arranged, values.length);
+    }
+
+    /**
+     * Remove the symbols of a sequence from a profile, undoing
+     * {@link #place(int, int, int[][], int[])}.
+     *
+     * @return the decrease in score
+     */
+    private int unplace(int i, int offset, int[][] profile, int[] colMax) {
+        boolean strand = offset <= W - N;
+        int column = strand ? offset : offset - (W - N + 1);
+        long[] words = dna[i].getPackedWords(strand);
+        int loss = 0;
+        for (int j = 0; j < N; j++) {
+            int col = j + column;
+            if (profile[Sequence.codeAt(words, j)][col]-- == colMax[col]) {
+                // the max may have been held by this symbol alone
+                int max = profile[0][col];
+                for (int a = 1; a < profile.length; a++)
+                    if (profile[a][col] > max)
+                        max = profile[a][col];
+                loss += colMax[col] - max;
+                colMax[col] = max;
+            }
+        }
+        return loss;
+    }
+
+    /**
+     * Place a sequence in the profile of an arena, whichever way it is
+     * counted.
+     *
+     * @return the increase in score
+     */
+    private int place(Arena arena, int i, int offset) {
+        if (arena.packed != null)
+            return arena.packed.place(increment(i, offset), column(offset));
+        return place(i, offset, arena.profile, arena.colMax);
+    }
+
+    /**
+     * Remove a sequence from the profile of an arena, undoing
+     * {@link #place(Arena, int, int)}.
+     */
+    private void unplace(Arena arena, int i, int offset) {
+        if (arena.packed != null)
+            arena.packed.unplace(increment(i, offset), column(offset));
+        else
+            unplace(i, offset, arena.profile, arena.colMax);
+    }
+
+    /**
+     * Estimate what the sequences still to be placed can add to the profile
+     * of an arena.
+     */
+    private int remaining(Arena arena, int level) {
+        if (arena.packed != null)
+            return bound.remaining(level, arena.packed);
+        return bound.remaining(level, arena.profile, arena.colMax);
+    }
+
     /**
 	 * Search for the optimal alignment.
 	 *
@@ -244,61 +623,356 @@ public class Alignment {
 	 */
 
     public AlignmentScore findAlignment(int[] s) {
+		return findAlignment(s, null);
+	}
 
-        perf.countFind(); // ********DO NOT REMOVE********//
+    /**
+	 * Find a good alignment quickly, without search. Starting from each
+	 * offset of the first sequence, every other sequence in turn is placed
+	 * at the offset that raises the score of those placed before it the
+	 * most; then each sequence is moved to its best offset given all the
+	 * others, until no move raises the score. The best of these alignments
+	 * is usually close to the optimum and can seed the exact search (see
+	 * {@link #setIncumbent(int)}).
+	 *
+	 * @return a complete alignment and its score
+	 */
+    public AlignmentScore findGreedy() {
+		int[][] profile = new int[Sequence.alpha.length][W];
+		int[] colMax = new int[W];
+		int offsets = (reverse ? 2 : 1) * (W - N + 1);
+		AlignmentScore best = null;
+		for (int first = 0; first < offsets; first++) {
+			for (int[] counts : profile)
+				Arrays.fill(counts, 0);
+			Arrays.fill(colMax, 0);
+			int[] s = new int[dna.length];
+			s[0] = first;
+			int score = place(0, first, profile, colMax);
+			for (int i = 1; i < dna.length; i++) { // progressive placement
+				s[i] = bestOffset(i, offsets, 0, profile, colMax);
+				score += place(i, s[i], profile, colMax);
+			}
+			boolean moved = true;
+			while (moved) { // every move raises the score, so this ends
+				moved = false;
+				for (int i = 0; i < dna.length; i++) {
+					score -= unplace(i, s[i], profile, colMax);
+					int offset = bestOffset(i, offsets, s[i], profile, colMax);
+					if (offset != s[i]) {
+						s[i] = offset;
+						moved = true;
+					}
+					score += place(i, s[i], profile, colMax);
+				}
+			}
+			if (best == null || score > best.actual)
+				best = new AlignmentScore(score, s);
+		}
+		if (control != null)
+			control.offer(best.actual, best.path);
+		return best;
+	}
 
-		int level = getLevel(s); 	// Will be 0 first call when the s[0] == -1
-									// before any offsets have been set for ANY
-									// sequence.
-									// Will be 1 for first sequence, s.length
-									// for last sequence.
+    /**
+	 * Find the offset at which a sequence raises the score of a profile the
+	 * most.
+	 *
+	 * @param first
+	 *            the offset preferred among equally good ones
+	 * @return the offset index
+	 */
+    private int bestOffset(int i, int offsets, int first, int[][] profile, int[] colMax) {
+		int best = first;
+		int bestGain = gain(i, first, profile, colMax);
+		for (int offset = 0; offset < offsets; offset++) {
+			int g = gain(i, offset, profile, colMax);
+			if (g > bestGain) {
+				best = offset;
+				bestGain = g;
+			}
+		}
+		return best;
+	}
 
-		// calculate the score for the current level
-		int[][] profile = getProfile(s);
-		int[] maxsym = getConsensus(profile);
-		int score = getScore(profile, maxsym);
-		AlignmentScore current = new AlignmentScore(score, s);
+    /**
+	 * Start the search knowing that an alignment with the given score
+	 * exists, e.g. one found by {@link #findGreedy()}. Branches that cannot
+	 * reach the score are pruned from the start; an alignment with exactly
+	 * this score is still found, so the result is unchanged.
+	 *
+	 * @param score
+	 *            the score of an existing alignment
+	 */
+    public void setIncumbent(int score) {
+		improve(-1, score);
+	}
+
+    /**
+	 * Search for the optimal alignment using a fork/join pool. The subtrees
+	 * near the top of the search are run as separate tasks that share the
+	 * best score found so far, so that a good alignment found by one thread
+	 * prunes the search in the others. The result is the same as that of
+	 * {@link #findAlignment(int[])}.
+	 *
+	 * @param s
+	 *            the offset indices for the proposed and possibly partial
+	 *            alignment
+	 * @param pool
+	 *            the pool that runs the search, or null to search in this
+	 *            thread
+	 * @return the best as far as we know or null
+	 */
+    public AlignmentScore findAlignment(int[] s, ForkJoinPool pool) {
+		// the profile, its column maxima and the score are built once per
+		// arena and then updated as each sequence is placed and removed
+		getBound();
+		int level = getLevel(s);
+		canonical = level == 0;
+		long key = canonical ? canonicalKey : 0;
+		if (table != null)
+			for (int i = 0; i < level; i++)
+				key += keys[i][s[i]];
+		if (pool == null)
+			return findAlignment(new Arena(s), level, key);
+		// split until there are several tasks for every thread
+		int children = (reverse ? 2 : 1) * (W - N + 1);
+		int split = level;
+		for (long tasks = 1; tasks < 8L * pool.getParallelism() && split < s.length; tasks *= children)
+			split++;
+		return pool.invoke(new SubtreeTask(s, level, key, split));
+	}
 
-        if (score > this.currentBest) {
-            this.currentBest = score;
+    /**
+	 * Search for the optimal alignment below the node of a new arena.
+	 *
+	 * @return the first alignment with the best score found below the node,
+	 *         or null
+	 */
+    private AlignmentScore findAlignment(Arena arena, int level, long key) {
+		if (search(arena, level, arena.score, key) < 0)
+			return null;
+		return new AlignmentScore(arena.bestScore, arena.best);
+	}
+
+    /**
+	 * Search for the optimal alignment below a node with a known profile.
+	 * Nothing is allocated: the path is changed in place and restored, and
+	 * a leaf is copied into the arena only if it beats every leaf before it.
+	 *
+	 * @param arena
+	 *            the buffers of this search, whose path holds the node and
+	 *            whose profile is that of the path, restored before
+	 *            returning
+	 * @param level
+	 *            the number of offset indices assigned in the path
+	 * @param score
+	 *            the score of the path
+	 * @param key
+	 *            the key of the profile in the transposition table
+	 * @return the best score of a leaf found below the node, or -1 if none
+	 */
+    private int search(Arena arena, int level, int score, long key) {
+		int[] s = arena.path;
+
+        if (control != null && control.shouldStop()) { // out of time or cancelled
+            control.abandon(level == s.length ? score : score + remaining(arena, level));
+            return -1;
         }
 
+        perf.countFind(level); // ********DO NOT REMOVE********//
+        if (stats != null)
+            stats.enter(level);
+
+		// level will be 0 first call when the s[0] == -1 before any offsets
+		// have been set for ANY sequence. Will be 1 for first sequence,
+		// s.length for last sequence.
+
+		// the score for the current level has been maintained by the caller
+        improve(level, score);
+
 		if (level == s.length) { // At leaf node
             perf.countLeaf(); // ********DO NOT REMOVE********//
-			return current;
+            if (stats != null)
+                stats.leaf(level);
+            if (score > arena.bestScore) { // the first leaf with this score
+                arena.bestScore = score;
+                System.arraycopy(s, 0, arena.best, 0, s.length);
+            }
+            if (control != null)
+                control.offer(score, s);
+			return score;
 		}
 
 		// Make assessment of how good things can be, from here on,
 		// because if there's no chance of it improving on an optimistic estimate...
 		// then we give up.
 
-        int length = (N*(s.length - level));
+        int length = remaining(arena, level);
 
-		if (!chanceOfImproving(current, length)) {
+		if (!chanceOfImproving(score, length)) {
 			perf.countBreak(); // ********DO NOT REMOVE********//
-            return null;
+			pruned(level, score + length, currentBest.get());
+            return -1;
 		}
 
-		// Generate all child nodes.
-		// Consider ordering of the branches?
-		int[][] extensions = expand(s);
-
-		AlignmentScore bestScore = null;
-		for (int i = 0; i < extensions.length; i++) {
-            int[][] ext_prefix = extensions;
-			AlignmentScore nextScore = findAlignment(extensions[i]);
-			if (nextScore != null) {
-				if (bestScore == null)
-					bestScore = nextScore;
-				else if (nextScore.actual > bestScore.actual)
-					bestScore = nextScore;
+		// the same profile may have been searched before, from other offsets
+		if (table != null) {
+			int stored = table.probe(key, level);
+			if (stored < currentBest.get()) {
+				perf.countBreak(); // ********DO NOT REMOVE********//
+				pruned(level, stored, currentBest.get());
+				return -1;
 			}
 		}
+
+		// Generate all child nodes, the most promising first, by placing
+		// the next sequence at each offset in turn
+		int[] arranged = arena.arranged[level];
+		arrange(level, arena, arena.values[level], arranged);
+
+		SearchEvents.Subtree subtree = level < eventDepth ? SearchEvents.beginSubtree("alignment", level) : null;
+		int bestScore = -1;
+		for (int k = 0; k < arranged.length; k++) {
+			int offset = arranged[k];
+			if (!isCanonical(s, level, offset))
+				continue; // equivalent to an alignment searched elsewhere
+			int gain = place(arena, level, offset);
+			s[level] = offset;
+			long nextKey = table == null ? 0 : key + keys[level][offset];
+			int nextScore = search(arena, level + 1, score + gain, nextKey);
+			s[level] = -1;
+			unplace(arena, level, offset);
+			if (nextScore > bestScore)
+				bestScore = nextScore;
+		}
 		perf.countPropagate(); // ********DO NOT REMOVE********//
+		SearchEvents.endSubtree(subtree, bestScore);
 
+		// branches are pruned only if they cannot reach the best score, so
+		// nothing below scores more than what was found or the best less one
+		if (table != null && (control == null || !control.isStopped()))
+			table.store(key, level, Math.max(bestScore, currentBest.get() - 1));
         return bestScore;
 	}
 
+	/**
+	 * The buffers of one thread's sequential search, allocated once so that
+	 * searching a node allocates nothing. The profile of the path is kept
+	 * either as arrays or packed, as chosen by {@link #setPacked(boolean)}.
+	 */
+	private class Arena {
+		final int[] path; 			// offset indices of the node being searched
+		final int[][] profile; 		// profile of path, unless packed
+		final int[] colMax; 		// max count of each column of profile, unless packed
+		final PackedProfile packed; // packed profile of path, or null
+		final int score; 			// score of the path the arena was created with
+		final int[][] values; 		// [level][offset index]: value of each child
+		final int[][] arranged; 	// [level][k]: offset index of the child explored k-th
+		final int[] best; 			// the first leaf with the best score so far
+		int bestScore = -1; 		// score of best, or -1 if no leaf yet
+
+		Arena(int[] s) {
+			int children = (reverse ? 2 : 1) * (W - N + 1);
+			path = Arrays.copyOf(s, s.length);
+			if (Alignment.this.packed) {
+				profile = null;
+				colMax = null;
+				packed = getPackedProfile(s);
+				score = packed.getScore();
+			} else {
+				profile = getProfile(s);
+				colMax = new int[W];
+				int sum = 0;
+				for (int j = 0; j < W; j++) {
+					for (int a = 0; a < profile.length; a++)
+						if (profile[a][j] > colMax[j])
+							colMax[j] = profile[a][j];
+					sum += colMax[j];
+				}
+				packed = null;
+				score = sum;
+			}
+			values = new int[s.length][children];
+			arranged = new int[s.length][children];
+			best = new int[s.length];
+		}
+	}
+
+	/**
+	 * A subtree of a parallel search. Above the split level the children are
+	 * forked as tasks of their own, each counting its own profile; at the
+	 * split level the subtree is searched sequentially. Results are combined
+	 * in the order the children are explored by the sequential search.
+	 */
+	private class SubtreeTask extends RecursiveTask<AlignmentScore> {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] s; 			// offset indices of this node
+		private final int level; 		// number of offset indices assigned
+		private final long key; 		// key of the profile of s
+		private final int split; 		// level at which subtrees are searched sequentially
+
+		SubtreeTask(int[] s, int level, long key, int split) {
+			this.s = s;
+			this.level = level;
+			this.key = key;
+			this.split = split;
+		}
+
+		protected AlignmentScore compute() {
+			Arena arena = new Arena(s);
+			if (level >= split)
+				return findAlignment(arena, level, key);
+			int score = arena.score;
+			if (control != null && control.shouldStop()) {
+				control.abandon(score + remaining(arena, level));
+				return null;
+			}
+
+			perf.countFind(level); // ********DO NOT REMOVE********//
+			if (stats != null)
+				stats.enter(level);
+			improve(level, score);
+			int length = remaining(arena, level);
+			if (!chanceOfImproving(score, length)) {
+				perf.countBreak(); // ********DO NOT REMOVE********//
+				pruned(level, score + length, currentBest.get());
+				return null;
+			}
+			SearchEvents.Subtree subtree = level < eventDepth ? SearchEvents.beginSubtree("alignment", level) : null;
+
+			int[][] extensions = expand(s);
+			int[] arranged = new int[extensions.length];
+			arrange(level, arena, arena.values[level], arranged);
+			SubtreeTask[] tasks = new SubtreeTask[extensions.length];
+			int n = 0;
+			for (int k = 0; k < extensions.length; k++) {
+				int i = arranged[k];
+				if (!isCanonical(s, level, extensions[i][level]))
+					continue;
+				long childKey = table == null ? 0 : key + keys[level][extensions[i][level]];
+				tasks[n++] = new SubtreeTask(extensions[i], level + 1, childKey, split);
+			}
+			tasks = Arrays.copyOf(tasks, n);
+			invokeAll(tasks);
+
+			AlignmentScore bestScore = null;
+			for (int i = 0; i < tasks.length; i++) {
+				AlignmentScore nextScore = tasks[i].join();
+				if (nextScore != null) {
+					if (bestScore == null)
+						bestScore = nextScore;
+					else if (nextScore.actual > bestScore.actual)
+						bestScore = nextScore;
+				}
+			}
+			perf.countPropagate(); // ********DO NOT REMOVE********//
+			SearchEvents.endSubtree(subtree, bestScore == null ? -1 : bestScore.actual);
+			return bestScore;
+		}
+	}
+
 	/**
 	 * Holder of score and the path (offset indices defining the alignment)
 	 * leading to those scores. You may modify the code for this but keep the
@@ -0,0 +1,64 @@
+package a2;
+
+/**
+ * An optimistic estimate of how much the sequences that are still to be
+ * placed can add to the score of an alignment. {@link Alignment} places
+ * sequences in the order they are given, so at level k the sequences k..T-1
+ * remain. The estimate must never be lower than what those sequences can
+ * actually add, or the search may prune the optimal alignment.
+ */
+public interface AlignmentBound {
+
+	/**
+	 * Estimate the increase in score from placing the remaining sequences.
+	 * 
+	 * @param level
+	 *            the number of sequences placed so far
+	 * @param profile
+	 *            the profile of the sequences placed so far
+	 * @param colMax
+	 *            the max count of each column of profile
+	 * @return an upper bound on the increase in score
+	 */
+	int remaining(int level, int[][] profile, int[] colMax);
+
+	/**
+	 * Estimate the increase in score from placing the remaining sequences,
+	 * given a packed profile. By default the profile is unpacked.
+	 */
+	default int remaining(int level, PackedProfile profile) {
+		int[][] counts = profile.toArray();
+		int[] colMax = new int[counts[0].length];
+		for (int c = 0; c < colMax.length; c++)
+			for (int a = 0; a < counts.length; a++)
+				colMax[c] = Math.max(colMax[c], counts[a][c]);
+		return remaining(level, counts, colMax);
+	}
+
+	/**
+	 * The simplest bound: every remaining sequence matches the consensus in
+	 * all of its N positions.
+	 */
+	public static class PerSequence implements AlignmentBound {
+
+		private final int N; // sequence length
+		private final int T; // number of sequences
+
+		public PerSequence(int N, int T) {
+			this.N = N;
+			this.T = T;
+		}
+
+		public int remaining(int level, int[][] profile, int[] colMax) {
+			return N * (T - level);
+		}
+
+		public int remaining(int level, PackedProfile profile) {
+			return N * (T - level);
+		}
+
+		public String toString() {
+			return "simple";
+		}
+	}
+}
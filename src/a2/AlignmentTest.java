@@ -2,8 +2,21 @@ package a2;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Test;
 
@@ -129,6 +142,434 @@ public class AlignmentTest {
 		assertEquals(42, score.actual);
 	}
 
+	@Test
+	public void testFindAlignmentParallel() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		Alignment[] problems = { testme3, testme4, testme5, testme6 };
+		Alignment[] parallel = { new Alignment(perf, dna2), new Alignment(perf, dna2, true, 0),
+				new Alignment(perf, dna3), new Alignment(perf, dna3, true, 0) };
+		for (int i = 0; i < problems.length; i++) {
+			int t = i < 2 ? cs5x3.length : cs5x10.length;
+			Alignment.AlignmentScore seq = problems[i].findAlignment(allocateStartState(t));
+			Alignment.AlignmentScore par = parallel[i].findAlignment(allocateStartState(t), pool);
+			// same score and the same alignment among equally good ones
+			assertEquals(seq.actual, par.actual);
+			assertTrue(Arrays.equals(seq.path, par.path));
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFindAlignmentStopped() {
+		int optimal = new Alignment(perf, dna3).findAlignment(allocateStartState(dna3.length)).actual;
+		// cancelled at the first leaf, which in natural order is a poor one
+		Alignment problem = new Alignment(perf, dna3);
+		problem.setOrder(BranchOrder.NATURAL);
+		final SearchControl[] stop = new SearchControl[1];
+		SearchControl control = new SearchControl(new SearchControl.Listener() {
+			public void improved(int score, int[] path, long elapsed) {
+				stop[0].cancel();
+			}
+		});
+		stop[0] = control;
+		problem.setControl(control);
+		Alignment.AlignmentScore score = problem.findAlignment(allocateStartState(dna3.length));
+		// the incumbent is returned, and not claimed to be optimal
+		assertEquals(true, control.isStopped());
+		assertEquals(control.getBest(), score.actual);
+		assertTrue(Arrays.equals(control.getBestPath(), score.path));
+		assertTrue(score.actual < optimal);
+		assertTrue(control.getGap() > 0);
+		assertTrue(score.actual + control.getGap() >= optimal);
+		// no time at all: the search stops at the first check of the clock
+		optimal = testme6.findAlignment(allocateStartState(dna3.length)).actual;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (ForkJoinPool threads : new ForkJoinPool[] { null, pool }) {
+			problem = new Alignment(perf, dna3, true, 0);
+			control = new SearchControl(0, null);
+			problem.setControl(control);
+			score = problem.findAlignment(allocateStartState(dna3.length), threads);
+			assertEquals(true, control.isStopped());
+			assertTrue(control.getGap() > 0);
+			if (score != null)
+				assertEquals(control.getBest(), score.actual);
+			assertTrue(control.getBest() + control.getGap() >= optimal);
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFindGreedy() {
+		Sequence[][] data = { dna1, dna1, dna2, dna2, dna3, dna3 };
+		for (int i = 0; i < data.length; i++) {
+			boolean reverse = i % 2 == 1;
+			int optimal = new Alignment(perf, data[i], reverse, 0).findAlignment(allocateStartState(data[i].length)).actual;
+			Alignment problem = new Alignment(perf, data[i], reverse, 0);
+			Alignment.AlignmentScore greedy = problem.findGreedy();
+			// a real alignment, no better than the optimum
+			assertEquals(greedy.actual, problem.getScore(problem.getProfile(greedy.path),
+					problem.getConsensus(problem.getProfile(greedy.path))));
+			assertTrue(greedy.actual <= optimal);
+			// seeding the search does not change its result
+			problem.setIncumbent(greedy.actual);
+			assertEquals(optimal, problem.findAlignment(allocateStartState(data[i].length)).actual);
+		}
+	}
+
+	@Test
+	public void testFindAlignmentOrder() {
+		Sequence[][] data = { dna1, dna1, dna2, dna2 };
+		for (int i = 0; i < data.length; i++) {
+			boolean reverse = i % 2 == 1;
+			Alignment first = new Alignment(perf, data[i], reverse, 0);
+			first.setOrder(BranchOrder.NATURAL);
+			Alignment best = new Alignment(perf, data[i], reverse, 0);
+			// the order may pick another of equally good alignments only
+			int a = first.findAlignment(allocateStartState(data[i].length)).actual;
+			int b = best.findAlignment(allocateStartState(data[i].length)).actual;
+			assertEquals(a, b);
+		}
+	}
+
+	@Test
+	public void testFindAlignmentCanonical() {
+		Alignment[] problems = { testme1, testme2, testme3, testme4, testme5, testme6 };
+		Sequence[][] data = { dna1, dna1, dna2, dna2, dna3, dna3 };
+		for (int i = 0; i < problems.length; i++) {
+			int[] path = problems[i].findAlignment(allocateStartState(data[i].length)).path;
+			int shifts = problems[i].getN(); // W - N + 1 for the default width
+			// first sequence on the original strand, some sequence in the first column
+			assertTrue(path[0] < shifts);
+			boolean left = false;
+			for (int offset : path)
+				left |= offset == 0 || offset == shifts;
+			assertTrue(left);
+		}
+	}
+
+	@Test
+	public void testFindAlignmentCanonicalNodes() {
+		for (boolean reverse : new boolean[] { false, true }) {
+			PerfMeter canonical = new PerfMeter();
+			int best = new Alignment(canonical, dna1, reverse, 0).findAlignment(allocateStartState(dna1.length)).actual;
+			// every child of the root searched on its own, so nothing is left out
+			PerfMeter all = new PerfMeter();
+			Alignment problem = new Alignment(all, dna1, reverse, 0);
+			int found = 0;
+			for (int offset = 0; offset < (reverse ? 2 : 1) * problem.getN(); offset++) {
+				int[] s = allocateStartState(dna1.length);
+				s[0] = offset;
+				Alignment.AlignmentScore score = problem.findAlignment(s);
+				if (score != null)
+					found = Math.max(found, score.actual);
+			}
+			assertEquals(found, best);
+			long fewer = canonical.getMeter().getFinds();
+			long more = all.getMeter().getFinds();
+			assertTrue(fewer < more);
+			if (reverse) // one strand of the first sequence only
+				assertTrue(2 * fewer < more + more / 10);
+		}
+	}
+
+	@Test
+	public void testTranspositionTable() {
+		// each sequence twice, so that swapping the copies gives the same profile
+		Sequence[] twice = new Sequence[dna3.length * 2];
+		for (int i = 0; i < twice.length; i++)
+			twice[i] = dna3[i / 2];
+		for (boolean reverse : new boolean[] { false, true }) {
+			int expected = new Alignment(perf, twice, reverse, 0).findAlignment(allocateStartState(twice.length)).actual;
+			Alignment problem = new Alignment(perf, twice, reverse, 0);
+			TranspositionTable table = new TranspositionTable(12);
+			problem.setTranspositionTable(table);
+			assertEquals(expected, problem.findAlignment(allocateStartState(twice.length)).actual);
+			assertTrue(table.getHits() > 0);
+			// a table too small to hold much still gives the right score
+			problem = new Alignment(perf, twice, reverse, 0);
+			problem.setTranspositionTable(new TranspositionTable(0));
+			assertEquals(expected, problem.findAlignment(allocateStartState(twice.length)).actual);
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testTranspositionTableTooLarge() {
+		new TranspositionTable(30); // 2^31 longs do not fit in an array
+	}
+
+	@Test
+	public void testPackedProfile() {
+		Random random = new Random(7);
+		Alignment[] problems = { testme1, testme2, testme5, testme6 };
+		Sequence[][] data = { dna1, dna1, dna3, dna3 };
+		for (int p = 0; p < problems.length; p++) {
+			int n = problems[p].getN();
+			int offsets = (p % 2 == 0 ? 1 : 2) * n; // W - N + 1 = N for the default width
+			for (int trial = 0; trial < 50; trial++) {
+				int[] s = new int[data[p].length];
+				for (int i = 0; i < s.length; i++)
+					s[i] = random.nextInt(offsets);
+				int[][] profile = problems[p].getProfile(s);
+				PackedProfile packed = problems[p].getPackedProfile(s);
+				for (int a = 0; a < profile.length; a++)
+					assertTrue(Arrays.equals(profile[a], packed.toArray()[a]));
+				int[] consensus = problems[p].getConsensus(profile);
+				assertTrue(Arrays.equals(consensus, packed.getConsensus()));
+				assertEquals(problems[p].getScore(profile, consensus), packed.getScore());
+			}
+		}
+		// the largest counts that fit
+		Sequence[] same = new Sequence[PackedProfile.MAX_COUNT];
+		Arrays.fill(same, dna3[0]);
+		Alignment problem = new Alignment(perf, same);
+		int[] s = new int[same.length];
+		PackedProfile packed = problem.getPackedProfile(s);
+		assertEquals(PackedProfile.MAX_COUNT * same[0].getLength(), packed.getScore());
+		assertTrue(Arrays.equals(problem.getConsensus(problem.getProfile(s)), packed.getConsensus()));
+	}
+
+	@Test
+	public void testPackedSearch() throws IOException {
+		// cs7x5, the first sequences of cs100x7 and two sequences wider than a word
+		Sequence[] cs100x7 = Arrays.copyOf(Sequence.readFile("data/cs100x7.fa"), 8);
+		Sequence[] wide = { new Sequence("S1", "ACGTACGTTGCAACGTACGTTGCAACGTACGTA".toCharArray()),
+				new Sequence("S2", "CGTACGTTGCAACGTACGTTGCAACGTACGTAC".toCharArray()) };
+		Sequence[][] data = { dna1, cs100x7, wide };
+		int[] widths = { 0, 0, 2 * wide[0].getLength() - 1 };
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (int d = 0; d < data.length; d++) {
+			for (boolean reverse : new boolean[] { false, true }) {
+				PerfMeter arrays = new PerfMeter();
+				PerfMeter words = new PerfMeter();
+				Alignment.AlignmentScore expected = new Alignment(arrays, data[d], reverse, widths[d])
+						.findAlignment(allocateStartState(data[d].length));
+				Alignment problem = new Alignment(words, data[d], reverse, widths[d]);
+				problem.setPacked(true);
+				Alignment.AlignmentScore packed = problem.findAlignment(allocateStartState(data[d].length));
+				// the same alignment, found by the same search
+				assertEquals(expected.actual, packed.actual);
+				assertTrue(Arrays.equals(expected.path, packed.path));
+				assertEquals(arrays.getMeter().getFinds(), words.getMeter().getFinds());
+				Alignment.AlignmentScore parallel = problem.findAlignment(allocateStartState(data[d].length), pool);
+				assertEquals(expected.actual, parallel.actual);
+				assertTrue(Arrays.equals(expected.path, parallel.path));
+			}
+		}
+		pool.shutdown();
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testPackedProfileTooMany() {
+		Sequence[] same = new Sequence[PackedProfile.MAX_COUNT + 1];
+		Arrays.fill(same, dna3[0]);
+		new Alignment(perf, same).getPackedProfile(new int[same.length]);
+	}
+
+	@Test
+	public void testPerfMeter() {
+		// two searches in parallel, each counting into a meter of its own
+		PerfMeter first = new PerfMeter();
+		PerfMeter second = new PerfMeter();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		Alignment.AlignmentScore parallel = new Alignment(first, dna3).findAlignment(allocateStartState(dna3.length), pool);
+		pool.shutdown();
+		Alignment.AlignmentScore serial = new Alignment(second, dna3).findAlignment(allocateStartState(dna3.length));
+		assertEquals(serial.actual, parallel.actual);
+		SearchMeter meter = second.getMeter();
+		assertTrue(meter.getFinds() > 0);
+		assertTrue(meter.getDepth() >= 0 && meter.getDepth() <= dna3.length);
+		assertEquals(-1, new SearchMeter().getDepth());
+		assertEquals(meter.getFinds(), meter.getLeaves() + meter.getBreaks() + meter.getPropagates());
+		meter = first.getMeter();
+		assertEquals(meter.getFinds(), meter.getLeaves() + meter.getBreaks() + meter.getPropagates());
+		first.exit();
+		long elapsed = meter.getElapsed();
+		assertTrue(elapsed > 0 && meter.getNodeRate() > 0);
+		assertEquals(elapsed, meter.getElapsed()); // the clock has stopped
+	}
+
+	@Test
+	public void testDepthStats() {
+		for (ForkJoinPool pool : new ForkJoinPool[] { null, new ForkJoinPool(4) }) {
+			PerfMeter meter = new PerfMeter();
+			Alignment problem = new Alignment(meter, dna3, true, 0);
+			DepthStats stats = new DepthStats(dna3.length + 1);
+			problem.setDepthStats(stats);
+			problem.findAlignment(allocateStartState(dna3.length), pool);
+			long entered = 0, pruned = 0, leaves = 0;
+			for (int d = 0; d < stats.getDepths(); d++) {
+				entered += stats.getEntered(d);
+				pruned += stats.getPruned(d);
+				leaves += stats.getLeaves(d);
+				if (stats.getPruned(d) > 0)
+					assertTrue(stats.getAverageSlack(d) >= 1); // pruned only below the best score
+			}
+			// the same nodes as the totals, leaves only at the last level
+			assertEquals(meter.getMeter().getFinds(), entered);
+			assertEquals(meter.getMeter().getBreaks(), pruned);
+			assertEquals(meter.getMeter().getLeaves(), leaves);
+			assertEquals(leaves, stats.getLeaves(dna3.length));
+			assertEquals(1, stats.getEntered(0));
+			StringWriter csv = new StringWriter();
+			stats.writeCsv(new PrintWriter(csv));
+			assertEquals(stats.getDepths() + 1, csv.toString().split("\n").length);
+			if (pool != null)
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * Search every alignment below a node, checking at each node that the
+	 * bound is no less than what any completion adds.
+	 *
+	 * @return the best score of a complete alignment below the node
+	 */
+	private static int checkBound(Alignment problem, PairwiseBound bound, int[] s, int level, int offsets) {
+		int[][] profile = problem.getProfile(s);
+		int[] colMax = new int[profile[0].length];
+		int score = 0;
+		for (int c = 0; c < colMax.length; c++) {
+			for (int a = 0; a < profile.length; a++)
+				colMax[c] = Math.max(colMax[c], profile[a][c]);
+			score += colMax[c];
+		}
+		if (level == s.length)
+			return score;
+		int best = 0;
+		for (int offset = 0; offset < offsets; offset++) {
+			s[level] = offset;
+			best = Math.max(best, checkBound(problem, bound, s, level + 1, offsets));
+		}
+		s[level] = -1;
+		int remaining = bound.remaining(level, profile, colMax);
+		assertTrue("level " + level + ": " + score + " + " + remaining + " < " + best, score + remaining >= best);
+		return best;
+	}
+
+	@Test
+	public void testPairwiseBound() {
+		Random random = new Random(5);
+		for (int trial = 0; trial < 60; trial++) {
+			boolean reverse = trial % 2 == 1;
+			int T = 2 + random.nextInt(4);
+			int N = 3 + random.nextInt(4);
+			int W = N + random.nextInt(N);
+			int offsets = (reverse ? 2 : 1) * (W - N + 1);
+			if (Math.pow(offsets, T) > 50000) // keep the tree small enough to search in full
+				W = N + 1;
+			offsets = (reverse ? 2 : 1) * (W - N + 1);
+			// few symbols for some instances, so that sequences agree often
+			int symbols = trial % 3 == 0 ? 2 : Sequence.alpha.length;
+			Sequence[] dna = new Sequence[T];
+			for (int i = 0; i < T; i++) {
+				char[] chars = new char[N];
+				for (int j = 0; j < N; j++)
+					chars[j] = Sequence.alpha[random.nextInt(symbols)];
+				dna[i] = new Sequence("S" + (i + 1), chars);
+			}
+			Alignment problem = new Alignment(perf, dna, reverse, W);
+			PairwiseBound bound = new PairwiseBound(dna, reverse, W);
+			int best = checkBound(problem, bound, allocateStartState(T), 0, offsets);
+			// and the search, which prunes with the bound, still finds the optimum
+			assertEquals(best, problem.findAlignment(allocateStartState(T)).actual);
+		}
+		// wider than a word, where the profile is matched without bit masks
+		for (boolean reverse : new boolean[] { false, true }) {
+			Sequence[] dna = { new Sequence("S1", "ACGTACGTTGCAACGTACGTTGCAACGTACGTA".toCharArray()),
+					new Sequence("S2", "CGTACGTTGCAACGTACGTTGCAACGTACGTAC".toCharArray()) };
+			int W = 2 * dna[0].getLength() - 1;
+			Alignment problem = new Alignment(perf, dna, reverse, W);
+			PairwiseBound bound = new PairwiseBound(dna, reverse, W);
+			checkBound(problem, bound, allocateStartState(dna.length), 0, (reverse ? 2 : 1) * (W - dna[0].getLength() + 1));
+		}
+	}
+
+	/**
+	 * Record the search events of a search of each sequence twice, with or
+	 * without a transposition table, and check them against the search.
+	 *
+	 * @return the number of nodes entered
+	 */
+	private long checkSearchEvents(boolean withTable) throws IOException {
+		Sequence[] twice = new Sequence[dna2.length * 2];
+		for (int i = 0; i < twice.length; i++)
+			twice[i] = dna2[i / 2];
+		PerfMeter meter = new PerfMeter();
+		Alignment problem = new Alignment(meter, twice, false, 0);
+		if (withTable)
+			problem.setTranspositionTable(new TranspositionTable(12));
+		File file = File.createTempFile("search", ".jfr");
+		int best;
+		try (Recording recording = new Recording()) {
+			recording.enable(SearchEvents.Incumbent.class);
+			recording.enable(SearchEvents.Prune.class);
+			recording.start();
+			best = problem.findAlignment(allocateStartState(twice.length)).actual;
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+		int incumbent = -1, prunes = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			String name = event.getEventType().getName();
+			if (!event.getString("search").equals("alignment"))
+				continue;
+			if (name.equals("a2.Incumbent")) {
+				// each a partial or complete alignment better than the last
+				assertTrue(event.getInt("level") >= 0 && event.getInt("level") <= twice.length);
+				assertTrue(event.getInt("score") > incumbent);
+				incumbent = event.getInt("score");
+			} else if (name.equals("a2.Prune")) {
+				prunes++;
+				assertTrue(event.getInt("bound") < event.getInt("score"));
+			}
+		}
+		file.delete();
+		assertEquals(best, incumbent);
+		// every break is recorded, those of the table too
+		assertTrue(prunes > 0);
+		assertEquals(meter.getMeter().getBreaks(), prunes);
+		return meter.getMeter().getFinds();
+	}
+
+	@Test
+	public void testSearchEvents() throws IOException {
+		long without = checkSearchEvents(false);
+		// only the table prunes more, so its prunes were among those recorded
+		assertTrue(checkSearchEvents(true) < without);
+	}
+
+	@Test
+	public void testLoadEvents() throws IOException {
+		File fasta = File.createTempFile("load", ".fa");
+		try (PrintWriter out = new PrintWriter(new FileWriter(fasta))) {
+			for (int i = 0; i < cs7x5.length; i++)
+				out.println(">S" + (i + 1) + "\n" + cs7x5[i]);
+		}
+		File file = File.createTempFile("load", ".jfr");
+		Sequence[] read;
+		try (Recording recording = new Recording()) {
+			recording.enable(SearchEvents.FastaLoad.class).withThreshold(Duration.ZERO);
+			recording.start();
+			read = Sequence.readFile(fasta.getPath());
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+		List<String> phases = new ArrayList<String>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			if (!event.getEventType().getName().equals("a2.FastaLoad"))
+				continue;
+			assertEquals(fasta.getPath(), event.getString("file"));
+			assertEquals(fasta.length(), event.getLong("bytes"));
+			phases.add(event.getString("phase"));
+			if (event.getString("phase").equals("decode"))
+				assertEquals(read.length, event.getInt("sequences"));
+		}
+		file.delete();
+		fasta.delete();
+		assertEquals(cs7x5.length, read.length);
+		assertEquals(Arrays.asList("open", "decode"), phases);
+	}
+
 	public static int[] allocateStartState(int n) {
 		int[] s = new int[n];
 		for (int i = 0; i < n; i ++)
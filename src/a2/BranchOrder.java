@@ -0,0 +1,60 @@
+package a2;
+
+/**
+ * A policy for the order in which the children of a search node are
+ * explored. The search scores each child cheaply (higher is more
+ * promising) and explores them in the order the policy gives. Exploring
+ * promising children first finds good solutions early, so that later
+ * branches can be pruned harder.
+ */
+public interface BranchOrder {
+
+	/**
+	 * Arrange the children of a node.
+	 *
+	 * @param values
+	 *            an estimate of how good each child is, in the order the
+	 *            children were generated
+	 * @param order
+	 *            receives the indices of the children in the order they are
+	 *            to be explored
+	 * @param n
+	 *            the number of children
+	 */
+	void arrange(int[] values, int[] order, int n);
+
+	/**
+	 * Explore the children in the order they were generated.
+	 */
+	public static final BranchOrder NATURAL = new BranchOrder() {
+		public void arrange(int[] values, int[] order, int n) {
+			for (int i = 0; i < n; i++)
+				order[i] = i;
+		}
+
+		public String toString() {
+			return "natural";
+		}
+	};
+
+	/**
+	 * Explore the children with the highest values first; children with the
+	 * same value stay in the order they were generated.
+	 */
+	public static final BranchOrder BEST_FIRST = new BranchOrder() {
+		public void arrange(int[] values, int[] order, int n) {
+			for (int i = 0; i < n; i++) { // insertion sort, as there are few children
+				int j = i;
+				while (j > 0 && values[order[j - 1]] < values[i]) {
+					order[j] = order[j - 1];
+					j--;
+				}
+				order[j] = i;
+			}
+		}
+
+		public String toString() {
+			return "value";
+		}
+	};
+}
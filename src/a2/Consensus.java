@@ -1,6 +1,15 @@
 package a2;
 
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Class for searching for a consensus in DNA sequence data.
@@ -13,6 +22,15 @@ public class Consensus {
 	private boolean reverse = false;// whether the consensus considers the
 									// reverse strand
 	private int W = -1; // the width of the sought consensus
+	private SearchControl control = null; // stops the search early, if set
+	private BranchOrder order = BranchOrder.BEST_FIRST; // order of extensions
+	private boolean canonical = false; // search one of each consensus and its reverse complement
+	private boolean packed = false; // count profiles with a PackedProfile
+	private boolean vector = false; // score with the vector API, if available
+	private int eventDepth = 2; 	// subtrees above this level are timed as JFR events
+	private DepthStats stats = null; // counts of each level of the tree, if set
+	// nodes searched by each thread of the last parallel search
+	private final Map<String, LongAdder> threadNodes = new ConcurrentHashMap<String, LongAdder>();
 
 	/**
 	 * Constructs an instance of the class, prepares for search and checks for
@@ -61,6 +79,81 @@ public class Consensus {
 		this.reverse = reverse;
 	}
 
+	/**
+	 * Set a control that can stop the search early (on a deadline or when
+	 * cancelled) and that is told of every better consensus found. A stopped
+	 * search returns the best consensus found before it stopped.
+	 * 
+	 * @param control
+	 *            the control, or null to always search to completion
+	 */
+	public void setControl(SearchControl control) {
+		this.control = control;
+	}
+
+	/**
+	 * Set the order in which the extensions of a prefix are searched. They
+	 * are valued by their optimistic bound, so by default the extension that
+	 * could score the most is searched first. The order does not change the
+	 * best score, but may change which of equally good consensus sequences
+	 * is returned.
+	 * 
+	 * @param order
+	 *            the policy, e.g. {@link BranchOrder#NATURAL} for the order
+	 *            of the alphabet
+	 */
+	public void setOrder(BranchOrder order) {
+		this.order = order;
+	}
+
+	/**
+	 * Choose whether the profiles counted by {@link #findGreedy()} are packed
+	 * (see {@link Alignment#setPacked(boolean)}).
+	 * 
+	 * @param packed
+	 *            true for packed profiles
+	 */
+	public void setPacked(boolean packed) {
+		this.packed = packed;
+	}
+
+	/**
+	 * Choose whether prefixes are scored with the vector API (see
+	 * {@link ScoreKernel}); by default they are not. It is used only if the
+	 * vector kernel has been compiled and the jdk.incubator.vector module is
+	 * present; otherwise the scalar kernel is used either way.
+	 * 
+	 * @param vector
+	 *            true to use the vector API if available
+	 */
+	public void setVector(boolean vector) {
+		this.vector = vector;
+	}
+
+	/**
+	 * Set how deep into the tree the search of a subtree is recorded as a
+	 * JFR event (see {@link SearchEvents}). The default of 2 records the
+	 * empty prefix and its extensions by one symbol.
+	 * 
+	 * @param depth
+	 *            subtrees of prefixes with fewer than depth symbols are
+	 *            recorded; 0 for none
+	 */
+	public void setEventDepth(int depth) {
+		this.eventDepth = depth;
+	}
+
+	/**
+	 * Set statistics that count the prefixes of each length searched.
+	 * 
+	 * @param stats
+	 *            statistics with (at least) one depth more than the width
+	 *            of the consensus, or null to not count
+	 */
+	public void setDepthStats(DepthStats stats) {
+		this.stats = stats;
+	}
+
 	/**
 	 * Get number symbols in each sequence
 	 */
@@ -100,39 +193,29 @@ public class Consensus {
 	public int getScore(int[] consensus) {
 		int level = getLevel(consensus); // find how many symbols we are
 											// checking
+		long[] packed = Sequence.pack(consensus, level); // compared a word
+															// (32 symbols) at a time
 		int totscore = 0;
 		for (int j = 0; j < dna.length; j++) { // we sum the score over all
 												// sequences
-			int[] seq_orig = dna[j].getSymbolIndices(true); // the original
+			long[] seq_orig = dna[j].getPackedWords(true); // the original
 															// strand
-			int[] seq_reverse = dna[j].getSymbolIndices(false); // the reverse
+			long[] seq_reverse = dna[j].getPackedWords(false); // the reverse
 																// strand
 			int bestscore = 0;
-			for (int i = 0; i < W - N + 1; i++) { // for each start position in
-													// the consensus
-				int score = 0; // note: we stop counting when the sequence does
-								// not fit
-				for (int w = 0; w < N; w++) { // walk through the whole sequence
-												// (orig strand)
-					if (i + w < level) // only count as far as symbols have been
-										// assigned
-						// add one if the sequence and consensus share symbol
-						score += (seq_orig[w] == consensus[i + w]) ? 1 : 0;
-				}
+			for (int i = 0; i < W - N + 1 && i < level; i++) { // for each start
+													// position in the consensus
+				// note: we stop counting when the sequence does not fit, i.e.
+				// only count as far as symbols have been assigned
+				int n = Math.min(N, level - i);
+				// number of positions where the sequence and consensus share symbol
+				int score = Sequence.countMatches(seq_orig, packed, i, n);
 				if (score > bestscore) // if this is the best we've seen...
 					bestscore = score; // remember it
 				// if we are looking at the reverse strand sequence we do the
 				// same again
 				if (reverse) {
-					score = 0;
-					for (int w = 0; w < N; w++) { // walk through the reverse
-													// strand
-						if (i + w < level) // only count as far as symbols have
-											// been assigned
-							// add one if the reverse sequence and consensus
-							// share the symbol
-							score += (seq_reverse[w] == consensus[i + w]) ? 1 : 0;
-					}
+					score = Sequence.countMatches(seq_reverse, packed, i, n);
 					if (score > bestscore)
 						bestscore = score;
 				}
@@ -152,31 +235,23 @@ public class Consensus {
 	 */
 	public int[] getAlignment(int[] consensus) {
 		int level = getLevel(consensus);
+		long[] packed = Sequence.pack(consensus, level);
 		int totscore = 0;
 		int[] s = new int[dna.length]; // offsets for alignment
 		for (int j = 0; j < dna.length; j++) {
-			int[] seq_orig = dna[j].getSymbolIndices(true);
-			int[] seq_reverse = dna[j].getSymbolIndices(false);
+			long[] seq_orig = dna[j].getPackedWords(true);
+			long[] seq_reverse = dna[j].getPackedWords(false);
 			int bestscore = 0;
-			for (int i = 0; i < W - N + 1; i++) { // for each start position in
-													// the consensus
-				int score = 0;
-				for (int w = 0; w < N; w++) { // walk through the whole sequence
-												// (orig strand)
-					if (i + w < level)
-						score += (seq_orig[w] == consensus[i + w]) ? 1 : 0;
-				}
+			for (int i = 0; i < W - N + 1 && i < level; i++) { // for each start
+													// position in the consensus
+				int n = Math.min(N, level - i);
+				int score = Sequence.countMatches(seq_orig, packed, i, n);
 				if (score > bestscore) {
 					bestscore = score;
 					s[j] = i; // alignment
 				}
 				if (reverse) {
-					score = 0;
-					for (int w = 0; w < N; w++) { // walk through the reverse
-													// strand too
-						if (i + w < level)
-							score += (seq_reverse[w] == consensus[i + w]) ? 1 : 0;
-					}
+					score = Sequence.countMatches(seq_reverse, packed, i, n);
 					if (score > bestscore) {
 						bestscore = score;
 						s[j] = i + (W - N + 1); // alignment reverse strand
@@ -208,6 +283,33 @@ public class Consensus {
 		return extensions;
 	}
 
+	/**
+	 * Determine whether a prefix may start a canonical consensus. With the
+	 * reverse strand, a consensus and its reverse complement have the same
+	 * score, as every sequence takes its best strand. Of the two, only the
+	 * one that is lower when they are compared from the centre outwards is
+	 * searched. That comparison of position p against the complement of
+	 * position W - 1 - p is known as soon as p is assigned, so the other
+	 * one is cut off without expanding it. This applies when the search
+	 * starts from an empty prefix; otherwise every prefix is searched.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @param nSym
+	 *            the number of symbols in prefix
+	 * @return true if the prefix is to be searched
+	 */
+	private boolean isCanonical(int[] prefix, int nSym) {
+		if (!canonical)
+			return true;
+		for (int p = W / 2; p < nSym; p++) {
+			int mirror = Sequence.alpha.length + 1 - prefix[W - 1 - p]; // complement
+			if (prefix[p] != mirror)
+				return prefix[p] < mirror;
+		}
+		return true;
+	}
+
 	/**
 	 * Search for consensus of a specified length, starting from the given
 	 * prefix.
@@ -224,27 +326,305 @@ public class Consensus {
 	 * @return the score of the best consensus (below this point in the tree)
 	 */
 	public ConsensusScore findConsensus(int[] prefix, int cutoff) {
+		// the matches of the prefix are counted once, then each extension
+		// only adds those of its new symbol
+		int nSym = getLevel(prefix);
+		canonical = reverse && nSym == 0;
+		ScoreTable table = new ScoreTable();
+		int actual = table.moveTo(prefix, nSym);
+		return findConsensus(prefix, nSym, actual, cutoff, table, null);
+	}
+
+	/**
+	 * Find a good consensus quickly, without search. It starts from the
+	 * consensus of a greedy alignment ({@link Alignment#findGreedy()}),
+	 * then alternately aligns the sequences to the consensus and takes the
+	 * consensus of that alignment, which never lowers the score, until the
+	 * score stops rising. Its score is a safe cutoff for the exact search.
+	 *
+	 * @return a complete consensus and its score
+	 */
+	public ConsensusScore findGreedy() {
+		Alignment alignment = new Alignment(perf, dna, reverse, W);
+		alignment.setPacked(packed);
+		int[] consensus = alignment.getAlignedConsensus(alignment.findGreedy().path);
+		int score = getScore(consensus);
+		while (true) {
+			int[] next = alignment.getAlignedConsensus(getAlignment(consensus));
+			int nextScore = getScore(next);
+			if (nextScore <= score)
+				break;
+			consensus = next;
+			score = nextScore;
+		}
+		if (control != null)
+			control.offer(score, consensus);
+		return new ConsensusScore(score, consensus);
+	}
+
+	/**
+	 * Search for consensus in parallel. The prefixes that extend the given
+	 * one by depth symbols (4^depth of them) are searched as separate tasks
+	 * on a work-stealing pool. The best score found by any task is shared
+	 * and checked by every task before it expands a prefix, so each task
+	 * prunes with the best cutoff known anywhere. The result is the same as
+	 * that of {@link #findConsensus(int[], int)}.
+	 * 
+	 * @param prefix
+	 *            the prefix from which the search is started
+	 * @param cutoff
+	 *            is a "bound" that can be used to break branching
+	 * @param pool
+	 *            the pool that runs the tasks
+	 * @param depth
+	 *            the number of symbols added to prefix before splitting into
+	 *            tasks
+	 * @return the score of the best consensus (below this point in the tree)
+	 */
+	public ConsensusScore findConsensus(int[] prefix, int cutoff, ForkJoinPool pool, int depth) {
+		threadNodes.clear();
+		int nSym = getLevel(prefix);
+		canonical = reverse && nSym == 0;
+		AtomicInteger shared = new AtomicInteger(cutoff);
+		return pool.invoke(new PrefixTask(prefix, nSym, Math.min(W, nSym + depth), shared));
+	}
+
+	/**
+	 * Search for consensus best-first: prefixes wait in a priority queue
+	 * ordered by their optimistic bound and the most promising is expanded
+	 * next, so good consensus sequences are found early. The search stops
+	 * when no waiting prefix can beat the best found. If more than
+	 * maxFrontier prefixes are waiting, the worse half of them are searched
+	 * depth-first straight away to keep memory bounded. The score is the
+	 * same as that of {@link #findConsensus(int[], int)}, but the consensus
+	 * may be a different one of those with that score.
+	 * 
+	 * @param prefix
+	 *            the prefix from which the search is started
+	 * @param cutoff
+	 *            is a "bound" that can be used to break branching
+	 * @param maxFrontier
+	 *            the most prefixes that may wait in the queue
+	 * @return the score of the best consensus (below this point in the tree)
+	 */
+	public ConsensusScore findConsensusBestFirst(int[] prefix, int cutoff, int maxFrontier) {
+		PriorityQueue<OpenPrefix> frontier = new PriorityQueue<OpenPrefix>(11, OpenPrefix.MOST_PROMISING);
+		ScoreTable table = new ScoreTable();
+		ConsensusScore best = null;
+		long order = 0; // ties are expanded in the order generated
+
+		int nSym = getLevel(prefix);
+		canonical = reverse && nSym == 0;
+		int actual = table.moveTo(prefix, nSym);
+		frontier.add(new OpenPrefix(prefix, nSym, actual, table.bound(nSym), order++));
+
+		while (!frontier.isEmpty()) {
+			OpenPrefix open = frontier.poll();
+			// nothing left can beat (or, without a result yet, reach) the cutoff
+			if (open.bound < cutoff || (best != null && open.bound <= best.actual))
+				break;
+			if (control != null && control.shouldStop()) {
+				control.abandon(open.bound); // no waiting prefix has a higher bound
+				break;
+			}
+			perf.countFind(open.nSym);
+			if (stats != null)
+				stats.enter(open.nSym);
+
+			if (open.nSym == W) {
+				perf.countLeaf();
+				if (stats != null)
+					stats.leaf(open.nSym);
+				if (best == null || open.actual > best.actual) {
+					best = new ConsensusScore(open.actual, open.prefix);
+					SearchEvents.incumbent("consensus", open.nSym, open.actual);
+					cutoff = Math.max(cutoff, open.actual);
+					if (control != null)
+						control.offer(open.actual, open.prefix);
+				}
+				continue;
+			}
+
+			table.moveTo(open.prefix, open.nSym);
+			int[][] extend = expand(open.prefix);
+			for (int i = 0; i < extend.length; i++) {
+				if (!isCanonical(extend[i], open.nSym + 1))
+					continue; // the reverse complement is searched instead
+				int next = table.extend(open.nSym, extend[i][open.nSym]);
+				int bound = table.bound(open.nSym + 1);
+				if (bound < cutoff) { // no hope, so not worth queueing
+					perf.countFind(open.nSym + 1);
+					perf.countBreak();
+					if (stats != null)
+						stats.enter(open.nSym + 1);
+					pruned(open.nSym + 1, bound, cutoff);
+				} else
+					frontier.add(new OpenPrefix(extend[i], open.nSym + 1, next, bound, order++));
+			}
+			perf.countPropagate();
+
+			if (frontier.size() > maxFrontier) {
+				// search the less promising half depth-first
+				OpenPrefix[] all = frontier.toArray(new OpenPrefix[frontier.size()]);
+				Arrays.sort(all, OpenPrefix.MOST_PROMISING);
+				frontier.clear();
+				int keep = maxFrontier / 2;
+				for (int i = 0; i < keep; i++)
+					frontier.add(all[i]);
+				for (int i = keep; i < all.length; i++) {
+					OpenPrefix spill = all[i];
+					if (spill.bound < cutoff || (best != null && spill.bound <= best.actual))
+						continue;
+					table.moveTo(spill.prefix, spill.nSym);
+					ConsensusScore current = findConsensus(spill.prefix, spill.nSym, spill.actual, cutoff, table, null);
+					if (current != null && (best == null || current.actual > best.actual)) {
+						best = current;
+						cutoff = Math.max(cutoff, current.actual);
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A prefix waiting to be expanded by the best-first search.
+	 */
+	private static class OpenPrefix {
+
+		// highest bound first, then the longest prefix, then the oldest
+		static final Comparator<OpenPrefix> MOST_PROMISING = new Comparator<OpenPrefix>() {
+			public int compare(OpenPrefix a, OpenPrefix b) {
+				if (a.bound != b.bound)
+					return a.bound > b.bound ? -1 : 1;
+				if (a.nSym != b.nSym)
+					return a.nSym > b.nSym ? -1 : 1;
+				return Long.compare(a.order, b.order);
+			}
+		};
+
+		final int[] prefix; 	// the symbols of the prefix
+		final int nSym; 		// number of symbols in prefix
+		final int actual; 		// score of prefix
+		final int bound; 		// optimistic score of any consensus starting with prefix
+		final long order; 		// when the prefix was generated
+
+		OpenPrefix(int[] prefix, int nSym, int actual, int bound, long order) {
+			this.prefix = prefix;
+			this.nSym = nSym;
+			this.actual = actual;
+			this.bound = bound;
+			this.order = order;
+		}
+	}
+
+	/**
+	 * Retrieve the number of nodes (prefixes) searched by each thread during
+	 * the last parallel search, to show how well the work was balanced.
+	 * 
+	 * @return node counts by thread name
+	 */
+	public Map<String, Long> getThreadNodes() {
+		Map<String, Long> nodes = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> e : threadNodes.entrySet())
+			nodes.put(e.getKey(), e.getValue().sum());
+		return nodes;
+	}
+
+	/**
+	 * Order the extensions of a prefix by the policy set.
+	 * 
+	 * @param bounds
+	 *            the optimistic bound of each extension
+	 * @param n
+	 *            the number of extensions
+	 * @return the indices of the extensions in the order to search them
+	 */
+	private int[] arrange(int[] bounds, int n) {
+		int[] arranged = new int[n];
+		order.arrange(bounds, arranged, n);
+		return arranged;
+	}
+
+	/**
+	 * Record that a prefix has been pruned.
+	 * 
+	 * @param nSym
+	 *            the number of symbols in the prefix
+	 * @param bound
+	 *            the optimistic score of the prefix
+	 * @param cutoff
+	 *            the score it had to reach
+	 */
+	private void pruned(int nSym, int bound, int cutoff) {
+		SearchEvents.prune("consensus", nSym, bound, cutoff);
+		if (stats != null)
+			stats.prune(nSym, cutoff - bound);
+	}
+
+	/**
+	 * Raise a shared cutoff to a score that has been reached.
+	 */
+	private static void raise(AtomicInteger shared, int actual) {
+		int cutoff = shared.get();
+		while (actual > cutoff && !shared.compareAndSet(cutoff, actual))
+			cutoff = shared.get();
+	}
+
+	/**
+	 * Search for consensus below a prefix whose matches are known.
+	 * 
+	 * @param prefix
+	 *            the prefix from which the search is started
+	 * @param nSym
+	 *            the number of symbols in prefix
+	 * @param actual
+	 *            the score of prefix
+	 * @param cutoff
+	 *            is a "bound" that can be used to break branching
+	 * @param table
+	 *            the matches of prefix, held at level nSym
+	 * @param shared
+	 *            the best cutoff of all parallel tasks, or null
+	 * @return the score of the best consensus (below this point in the tree)
+	 */
+	private ConsensusScore findConsensus(int[] prefix, int nSym, int actual, int cutoff, ScoreTable table,
+			AtomicInteger shared) {
+		if (control != null && control.shouldStop()) { // out of time or cancelled
+			control.abandon(table.bound(nSym));
+			return null;
+		}
 		// We count the number of nodes examined (i.e. number of prefixes
 		// explored)
-		perf.countFind();
+		perf.countFind(nSym);
+		table.nodes++;
+		if (stats != null)
+			stats.enter(nSym);
+		if (shared != null && shared.get() > cutoff) // another task did better
+			cutoff = shared.get();
 
-		int nSym = getLevel(prefix); // number of symbols in current string
 		if (nSym == W) { // full string: we can determine score
-			int actual = getScore(prefix);
 			perf.countLeaf(); // we count this as a "leaf" exit
+			if (stats != null)
+				stats.leaf(nSym);
 			if (actual < cutoff) // disregard the score if we're
 				return null; // doing worse than we can do elsewhere
-			else
-				// if good, then return actual score
-				return new ConsensusScore(actual, prefix);
+			// if good, then return actual score (and let other tasks know)
+			if (actual > cutoff)
+				SearchEvents.incumbent("consensus", nSym, actual);
+			if (shared != null)
+				raise(shared, actual);
+			if (control != null)
+				control.offer(actual, prefix);
+			return new ConsensusScore(actual, prefix);
 		} else { // we are looking at an incomplete consensus (i.e. a prefix)
 			// make an assessment on whether we can do better than "cutoff"...
-			int actual = getScore(prefix);
-			// we've just scored a shortened version... determine the best we
-			// can do
-			if (actual + dna.length * (W - nSym) < cutoff) {
+			// each sequence can at best match every unassigned position its
+			// best offset still covers
+			if (table.bound(nSym) < cutoff) {
 				perf.countBreak(); // if there is no hope of improving, we give
 									// up
+				pruned(nSym, table.bound(nSym), cutoff);
 				return null;
 			}
 
@@ -252,14 +632,19 @@ public class Consensus {
 												// the current
 			ConsensusScore best = null; // remember the best because that is the
 										// only one we return
-			for (int i = 0; i < extend.length; i++) { // go through all extended
-													// prefixes
-				// Notice that the recursive call (below) will involve scoring
-				// the same sequences again
-				// but this time with ONE more symbol specified. Consider
-				// passing this distance vector
-				// to improve performance?
-				ConsensusScore current = findConsensus(extend[i], cutoff);
+			// the matches of each extended prefix are those of the current
+			// plus those of the ONE added symbol
+			int[] arranged = arrange(table.extendAll(nSym), extend.length);
+			SearchEvents.Subtree subtree = nSym < eventDepth ? SearchEvents.beginSubtree("consensus", nSym) : null;
+			for (int k = 0; k < extend.length; k++) { // go through all extended
+													// prefixes, the most promising first
+				int i = arranged[k];
+				if (!isCanonical(extend[i], nSym + 1))
+					continue; // the reverse complement is searched instead
+				int next = table.select(nSym, extend[i][nSym]);
+				if (shared != null && shared.get() > cutoff)
+					cutoff = shared.get();
+				ConsensusScore current = findConsensus(extend[i], nSym + 1, next, cutoff, table, shared);
 
 				if (current != null) { // if we got a result (that was better than
 										// the "cutoff")
@@ -270,10 +655,231 @@ public class Consensus {
 			}
 			perf.countPropagate(); // exit by returning the value
 									// "up the search tree"
+			SearchEvents.endSubtree(subtree, best == null ? -1 : best.actual);
 			return best;
 		}
 	}
 
+	/**
+	 * A prefix searched by a parallel task. Prefixes shorter than the split
+	 * level fork a task for each extension and combine the results in the
+	 * order the extensions are explored by the sequential search; at the split level
+	 * the task searches sequentially with a table of its own.
+	 */
+	private class PrefixTask extends RecursiveTask<ConsensusScore> {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] prefix; 			// prefix of this task
+		private final int nSym; 				// number of symbols in prefix
+		private final int split; 				// level at which tasks search sequentially
+		private final AtomicInteger shared; 	// best cutoff of all tasks
+
+		PrefixTask(int[] prefix, int nSym, int split, AtomicInteger shared) {
+			this.prefix = prefix;
+			this.nSym = nSym;
+			this.split = split;
+			this.shared = shared;
+		}
+
+		protected ConsensusScore compute() {
+			ScoreTable table = new ScoreTable();
+			int actual = table.moveTo(prefix, nSym);
+			try {
+				if (nSym >= split)
+					return findConsensus(prefix, nSym, actual, shared.get(), table, shared);
+				if (control != null && control.shouldStop()) {
+					control.abandon(table.bound(nSym));
+					return null;
+				}
+
+				perf.countFind(nSym);
+				table.nodes++;
+				if (stats != null)
+					stats.enter(nSym);
+				if (table.bound(nSym) < shared.get()) {
+					perf.countBreak();
+					pruned(nSym, table.bound(nSym), shared.get());
+					return null;
+				}
+				SearchEvents.Subtree subtree = nSym < eventDepth ? SearchEvents.beginSubtree("consensus", nSym) : null;
+				int[][] extend = expand(prefix);
+				int[] arranged = arrange(table.extendAll(nSym), extend.length);
+				PrefixTask[] tasks = new PrefixTask[extend.length];
+				int n = 0;
+				for (int k = 0; k < extend.length; k++)
+					if (isCanonical(extend[arranged[k]], nSym + 1))
+						tasks[n++] = new PrefixTask(extend[arranged[k]], nSym + 1, split, shared);
+				tasks = Arrays.copyOf(tasks, n);
+				invokeAll(tasks);
+				ConsensusScore best = null;
+				for (int i = 0; i < tasks.length; i++) {
+					ConsensusScore current = tasks[i].join();
+					if (current != null && (best == null || current.actual >= best.actual))
+						best = current;
+				}
+				perf.countPropagate();
+				SearchEvents.endSubtree(subtree, best == null ? -1 : best.actual);
+				return best;
+			} finally {
+				threadNodes.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()).add(table.nodes);
+			}
+		}
+	}
+
+	/**
+	 * The number of matching symbols of every sequence, at every offset and on
+	 * every strand, against the prefix at each level of the search. Level k
+	 * holds the matches with the first k symbols of the prefix, so extending
+	 * a prefix costs O(T * (W - N + 1)) rather than rescoring all N symbols.
+	 * 
+	 * The table also gives an optimistic bound for each level: the sum over
+	 * sequences of the best, over offsets and strands, of the matches so far
+	 * plus the unassigned positions that the offset still covers.
+	 */
+	private class ScoreTable {
+
+		final int offsets = W - N + 1; 				// start positions in the consensus
+		final int strands = reverse ? 2 : 1;
+		final int rows = dna.length * strands; // each sequence on each strand
+		final int[][] codes = new int[N][rows]; // symbol code of each row at each position
+		final int[][] open = new int[W][offsets]; // unassigned positions at [level][offset]
+		final ScoreKernel kernel = ScoreKernel.Factory.create(vector, dna.length, strands, offsets);
+		final int[][] own = new int[W + 1][rows * offsets]; // matches at [level][offset * rows + row]
+		final int[][] hits = new int[W + 1][]; // the matches held at each level: own or a child's
+		final int[][][] children = new int[W][][]; // matches of each extension at [level][symbol - 1]
+		final int[][] childScores = new int[W][Sequence.alpha.length];
+		final int[][] childBounds = new int[W][Sequence.alpha.length];
+		final int[] scores = new int[W + 1]; // score at each level
+		final int[] bounds = new int[W + 1]; // optimistic score at each level
+		final int[] held = new int[W]; 		// symbols of the prefix whose matches are held
+		int heldLevel = 0; 					// levels 0..heldLevel hold the matches of held
+		long nodes = 0; 					// nodes searched with this table
+		int filled; 						// bound of the last extension filled in
+
+		ScoreTable() {
+			hits[0] = own[0];
+			for (int level = 0; level < W; level++)
+				children[level] = new int[Sequence.alpha.length][own[0].length];
+			bounds[0] = dna.length * N;
+			// rows are the sequences on the original strand, then on the reverse
+			for (int r = 0; r < rows; r++) {
+				long[] packed = dna[r % dna.length].getPackedWords(r < dna.length);
+				for (int p = 0; p < N; p++)
+					codes[p][r] = Sequence.codeAt(packed, p);
+			}
+			// positions level + 1.. are unassigned
+			for (int level = 0; level < W; level++)
+				for (int i = 0; i < offsets; i++)
+					open[level][i] = Math.max(0, Math.min(N, i + N - level - 1));
+		}
+
+		/**
+		 * Add a symbol at position level, filling in level + 1 of the table.
+		 * 
+		 * @param level
+		 *            the number of symbols before the new one
+		 * @param symbol
+		 *            the symbol index (A=1, C=2, G=3 and T=4)
+		 * @return the score of the extended prefix (see {@link #bound(int)}
+		 *         for its optimistic bound)
+		 */
+		int extend(int level, int symbol) {
+			int[] to = own[level + 1];
+			int score = fill(level, symbol, hits[level], to);
+			hits[level + 1] = to;
+			scores[level + 1] = score;
+			bounds[level + 1] = filled;
+			held[level] = symbol;
+			heldLevel = level + 1;
+			return score;
+		}
+
+		/**
+		 * Score every symbol at position level without choosing one, so that
+		 * the extensions can be compared before they are searched. One of
+		 * them is then put in place by {@link #select(int, int)}.
+		 * 
+		 * @param level
+		 *            the number of symbols before the new one
+		 * @return the optimistic bound of each extension, indexed by symbol
+		 *         index - 1 (valid until the next call at this level)
+		 */
+		int[] extendAll(int level) {
+			for (int c = 0; c < Sequence.alpha.length; c++) {
+				childScores[level][c] = fill(level, c + 1, hits[level], children[level][c]);
+				childBounds[level][c] = filled;
+			}
+			return childBounds[level];
+		}
+
+		/**
+		 * Make level + 1 of the table hold one of the extensions scored by
+		 * the last {@link #extendAll(int)} at this level.
+		 * 
+		 * @param level
+		 *            the number of symbols before the new one
+		 * @param symbol
+		 *            the symbol index (A=1, C=2, G=3 and T=4)
+		 * @return the score of the extended prefix
+		 */
+		int select(int level, int symbol) {
+			hits[level + 1] = children[level][symbol - 1];
+			scores[level + 1] = childScores[level][symbol - 1];
+			bounds[level + 1] = childBounds[level][symbol - 1];
+			held[level] = symbol;
+			heldLevel = level + 1;
+			return scores[level + 1];
+		}
+
+		/**
+		 * Count the matches with a symbol at position level on top of those
+		 * of the levels before it (see {@link ScoreKernel}).
+		 * 
+		 * @return the score of the extended prefix; its optimistic bound is
+		 *         left in filled
+		 */
+		private int fill(int level, int symbol, int[] from, int[] to) {
+			// offsets whose sequence covers the new position
+			int lo = Math.max(0, level - N + 1);
+			int hi = Math.min(offsets - 1, level);
+			int score = kernel.fill(from, to, codes, level, symbol - 1, lo, hi, open[level]);
+			filled = kernel.getBound();
+			return score;
+		}
+
+		/**
+		 * Fill in the table for a prefix, only adding the symbols after those
+		 * it shares with the prefix held so far.
+		 * 
+		 * @param prefix
+		 *            the prefix
+		 * @param nSym
+		 *            the number of symbols in prefix
+		 * @return the score of the prefix
+		 */
+		int moveTo(int[] prefix, int nSym) {
+			int common = 0;
+			while (common < Math.min(heldLevel, nSym) && held[common] == prefix[common])
+				common++;
+			int actual = scores[common];
+			for (int k = common; k < nSym; k++)
+				actual = extend(k, prefix[k]);
+			heldLevel = nSym;
+			return actual;
+		}
+
+		/**
+		 * The most that a consensus starting with the prefix can score.
+		 * 
+		 * @param level
+		 *            the number of symbols in the prefix
+		 * @return the optimistic score
+		 */
+		int bound(int level) {
+			return bounds[level];
+		}
+	}
+
 	/**
 	 * Holder of score and the path (the symbols making up the consensus)
 	 * leading to those scores.
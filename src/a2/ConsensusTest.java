@@ -2,6 +2,23 @@ package a2;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.Test;
 
 public class ConsensusTest {
@@ -112,4 +129,197 @@ public class ConsensusTest {
 		assertEquals(14, score.actual);
 	}
 
+	@Test
+	public void testFindConsensusParallel() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		Consensus[] problems = { testme1, testme2, testme3, testme4 };
+		for (Consensus problem : problems) {
+			int[] prefix = new int[problem.getN() * 2 - 1];
+			Arrays.fill(prefix, -1);
+			Consensus.ConsensusScore seq = problem.findConsensus(prefix, 0);
+			for (int depth = 0; depth <= 3; depth++) {
+				Consensus.ConsensusScore par = problem.findConsensus(prefix, 0, pool, depth);
+				// same score and the same consensus among equally good ones
+				assertEquals(seq.actual, par.actual);
+				assertEquals(true, Arrays.equals(seq.path, par.path));
+			}
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFindConsensusBestFirst() {
+		Consensus[] problems = { testme1, testme2, testme3, testme4 };
+		for (Consensus problem : problems) {
+			int[] prefix = new int[problem.getN() * 2 - 1];
+			Arrays.fill(prefix, -1);
+			Consensus.ConsensusScore dfs = problem.findConsensus(prefix, 0);
+			// a tiny frontier makes most of the search depth-first
+			for (int maxFrontier : new int[] { 2, 16, 1 << 20 }) {
+				Consensus.ConsensusScore best = problem.findConsensusBestFirst(prefix, 0, maxFrontier);
+				assertEquals(dfs.actual, best.actual);
+				assertEquals(dfs.actual, problem.getScore(best.path));
+			}
+		}
+	}
+
+	@Test
+	public void testFindConsensusOrder() {
+		Sequence[][] data = { dna1, dna1, dna2, dna2 };
+		for (int i = 0; i < data.length; i++) {
+			boolean reverse = i % 2 == 1;
+			Consensus natural = new Consensus(perf, data[i], reverse, 0);
+			natural.setOrder(BranchOrder.NATURAL);
+			Consensus value = new Consensus(perf, data[i], reverse, 0);
+			int[] prefix = new int[data[i][0].getLength() * 2 - 1];
+			Arrays.fill(prefix, -1);
+			// the order may pick another of equally good solutions only
+			Consensus.ConsensusScore a = natural.findConsensus(prefix, 0);
+			Consensus.ConsensusScore b = value.findConsensus(prefix, 0);
+			assertEquals(a.actual, b.actual);
+			assertEquals(b.actual, value.getScore(b.path));
+		}
+	}
+
+	@Test
+	public void testFindGreedy() {
+		Consensus[] problems = { testme1, testme2, testme3, testme4 };
+		for (Consensus problem : problems) {
+			int[] prefix = new int[problem.getN() * 2 - 1];
+			Arrays.fill(prefix, -1);
+			int optimal = problem.findConsensus(prefix, 0).actual;
+			Consensus.ConsensusScore greedy = problem.findGreedy();
+			assertEquals(greedy.actual, problem.getScore(greedy.path));
+			assertTrue(greedy.actual <= optimal);
+			// the greedy score is a safe cutoff
+			assertEquals(optimal, problem.findConsensus(prefix, greedy.actual).actual);
+		}
+	}
+
+	@Test
+	public void testFindConsensusCanonical() {
+		Consensus[] problems = { testme2, testme4 };
+		for (Consensus problem : problems) {
+			int[] prefix = new int[problem.getN() * 2 - 1];
+			Arrays.fill(prefix, -1);
+			Consensus.ConsensusScore score = problem.findConsensus(prefix, 0);
+			// the reverse complement scores the same, but is not searched
+			int[] mirror = new int[score.path.length];
+			for (int p = 0; p < mirror.length; p++)
+				mirror[p] = 5 - score.path[mirror.length - 1 - p];
+			assertEquals(score.actual, problem.getScore(mirror));
+			int centre = score.path[score.path.length / 2]; // odd width
+			assertTrue(centre == 1 || centre == 2);
+			// the same score as with a prefix, where every consensus is searched
+			int best = 0;
+			for (int symbol = 1; symbol <= 4; symbol++) {
+				prefix[0] = symbol;
+				best = Math.max(best, problem.findConsensus(prefix, 0).actual);
+			}
+			assertEquals(score.actual, best);
+		}
+	}
+
+	@Test
+	public void testFindConsensusStopped() {
+		int[] prefix = new int[dna1[0].getLength() * 2 - 1];
+		Arrays.fill(prefix, -1);
+		int optimal = testme2.findConsensus(prefix, 0).actual;
+		// no time at all: the search stops at the first check of the clock
+		Consensus problem = new Consensus(perf, dna1, true, 0);
+		SearchControl control = new SearchControl(0, null);
+		problem.setControl(control);
+		Consensus.ConsensusScore score = problem.findConsensus(prefix, 0);
+		assertEquals(true, control.isStopped());
+		assertEquals(true, control.getBest() <= optimal);
+		assertEquals(true, control.getBest() + control.getGap() >= optimal);
+		if (score != null)
+			assertEquals(control.getBest(), score.actual);
+		// cancelled before starting
+		control = new SearchControl(null);
+		control.cancel();
+		problem.setControl(control);
+		assertEquals(null, problem.findConsensus(prefix, 0));
+		assertEquals(true, control.getGap() >= optimal);
+	}
+
+	@Test
+	public void testSearchEvents() throws IOException {
+		int[] prefix = new int[dna1[0].getLength() * 2 - 1];
+		Arrays.fill(prefix, -1);
+		Consensus problem = new Consensus(perf, dna1, true, 0);
+		problem.setEventDepth(1);
+		File file = File.createTempFile("search", ".jfr");
+		int best;
+		try (Recording recording = new Recording()) {
+			recording.enable(SearchEvents.Incumbent.class);
+			recording.enable(SearchEvents.Prune.class);
+			recording.enable(SearchEvents.Subtree.class).withThreshold(Duration.ZERO);
+			recording.start();
+			best = problem.findConsensus(prefix, 0).actual;
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+		int incumbent = 0, prunes = 0, subtrees = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			String name = event.getEventType().getName();
+			if (name.equals("a2.Incumbent"))
+				incumbent = Math.max(incumbent, event.getInt("score"));
+			else if (name.equals("a2.Prune")) {
+				prunes++;
+				assertTrue(event.getInt("bound") < event.getInt("score"));
+			} else if (name.equals("a2.Subtree")) {
+				subtrees++;
+				assertEquals(0, event.getInt("level")); // only the root with depth 1
+			}
+		}
+		file.delete();
+		assertEquals(best, incumbent);
+		assertTrue(prunes > 0);
+		assertEquals(1, subtrees);
+	}
+
+	@Test
+	public void testSearchMonitor() throws JMException {
+		int[] prefix = new int[dna1[0].getLength() * 2 - 1];
+		Arrays.fill(prefix, -1);
+		PerfMeter meter = new PerfMeter();
+		Consensus problem = new Consensus(meter, dna1, true, 0);
+		final List<Integer> depths = new ArrayList<Integer>(); // read as each better leaf is reached
+		final SearchMonitor[] watched = new SearchMonitor[1];
+		SearchControl control = new SearchControl(new SearchControl.Listener() {
+			public void improved(int score, int[] path, long elapsed) {
+				depths.add(watched[0].getCurrentDepth());
+			}
+		});
+		problem.setControl(control);
+		SearchMonitor monitor = new SearchMonitor("consensus", meter.getMeter(), control);
+		watched[0] = monitor;
+		ObjectName name = monitor.register();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(-1, server.getAttribute(name, "IncumbentScore"));
+			assertEquals("", server.getAttribute(name, "IncumbentPath"));
+			assertEquals(-1, server.getAttribute(name, "CurrentDepth"));
+			Consensus.ConsensusScore score = problem.findConsensus(prefix, 0);
+			// the depth follows the search: at a leaf while it is offered
+			assertFalse(depths.isEmpty());
+			for (int depth : depths)
+				assertEquals(prefix.length, depth);
+			assertEquals(score.actual, server.getAttribute(name, "IncumbentScore"));
+			assertEquals(meter.getMeter().getFinds(), server.getAttribute(name, "Nodes"));
+			double ratio = (Double) server.getAttribute(name, "PruneRatio");
+			assertTrue(ratio > 0 && ratio < 1);
+			assertTrue((Double) server.getAttribute(name, "NodeRate") > 0);
+			int depth = (Integer) server.getAttribute(name, "CurrentDepth"); // of the last node searched
+			assertTrue(depth >= 0 && depth <= prefix.length);
+			assertEquals(depth, server.getAttribute(name, "CurrentDepth")); // reading changes nothing
+			assertEquals(false, server.getAttribute(name, "Stopped"));
+			server.invoke(name, "cancel", null, null);
+			assertEquals(true, control.isStopped());
+		} finally {
+			monitor.unregister();
+		}
+	}
+
 }
@@ -0,0 +1,159 @@
+package a2;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of a search tree level by level: the nodes entered, pruned and
+ * reached as leaves at each depth, and how far the bounds of pruned nodes
+ * fell short of the score they had to beat (the slack). Where pruning
+ * starts to work shows as the depth at which the pruned nodes catch up with
+ * the entered ones; a bound that is tight has little slack.
+ *
+ * The counters are LongAdders, so the threads of a parallel search can all
+ * count into one instance, as with {@link SearchMeter}.
+ */
+public class DepthStats {
+
+	private final LongAdder[] entered; 	// [depth]: nodes entered
+	private final LongAdder[] pruned; 	// [depth]: nodes pruned
+	private final LongAdder[] leaves; 	// [depth]: complete solutions reached
+	private final LongAdder[] slack; 	// [depth]: sum of the slack of pruned nodes
+
+	/**
+	 * Creates empty statistics.
+	 *
+	 * @param depths
+	 *            the number of depths, i.e. one more than the deepest level
+	 *            (the number of sequences of an alignment or the width of a
+	 *            consensus)
+	 */
+	public DepthStats(int depths) {
+		entered = adders(depths);
+		pruned = adders(depths);
+		leaves = adders(depths);
+		slack = adders(depths);
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	/**
+	 * Count a node entered at a depth.
+	 */
+	public void enter(int depth) {
+		entered[depth].increment();
+	}
+
+	/**
+	 * Count a node pruned at a depth.
+	 *
+	 * @param depth
+	 *            the level of the node
+	 * @param slack
+	 *            the score the node had to beat less its bound
+	 */
+	public void prune(int depth, int slack) {
+		pruned[depth].increment();
+		this.slack[depth].add(slack);
+	}
+
+	/**
+	 * Count a complete solution reached at a depth.
+	 */
+	public void leaf(int depth) {
+		leaves[depth].increment();
+	}
+
+	/**
+	 * Retrieve the number of depths.
+	 */
+	public int getDepths() {
+		return entered.length;
+	}
+
+	/**
+	 * Retrieve the number of nodes entered at a depth.
+	 */
+	public long getEntered(int depth) {
+		return entered[depth].sum();
+	}
+
+	/**
+	 * Retrieve the number of nodes pruned at a depth.
+	 */
+	public long getPruned(int depth) {
+		return pruned[depth].sum();
+	}
+
+	/**
+	 * Retrieve the number of complete solutions reached at a depth.
+	 */
+	public long getLeaves(int depth) {
+		return leaves[depth].sum();
+	}
+
+	/**
+	 * Determine the average slack of the nodes pruned at a depth.
+	 *
+	 * @return the average, or 0 if none were pruned
+	 */
+	public double getAverageSlack(int depth) {
+		long n = getPruned(depth);
+		return n > 0 ? (double) slack[depth].sum() / n : 0;
+	}
+
+	/**
+	 * Write the statistics as CSV: a header, then a line for every depth.
+	 *
+	 * @param out
+	 *            receives the lines
+	 */
+	public void writeCsv(PrintWriter out) {
+		out.println("depth,entered,pruned,leaves,avg_slack");
+		for (int d = 0; d < getDepths(); d++)
+			out.println(String.format(Locale.ROOT, "%d,%d,%d,%d,%.3f", d, getEntered(d), getPruned(d),
+					getLeaves(d), getAverageSlack(d)));
+	}
+
+	/**
+	 * Write the statistics as a JSON object with an array of depths.
+	 *
+	 * @param out
+	 *            receives the object
+	 */
+	public void writeJson(PrintWriter out) {
+		out.println("{\"depths\": [");
+		for (int d = 0; d < getDepths(); d++)
+			out.println(String.format(Locale.ROOT,
+					"  {\"depth\": %d, \"entered\": %d, \"pruned\": %d, \"leaves\": %d, \"avg_slack\": %.3f}%s", d,
+					getEntered(d), getPruned(d), getLeaves(d), getAverageSlack(d), d + 1 < getDepths() ? "," : ""));
+		out.println("]}");
+	}
+
+	/**
+	 * Write the statistics to a file, as JSON if its name ends with .json
+	 * and as CSV otherwise.
+	 *
+	 * @param filename
+	 *            the name of the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String filename) throws IOException {
+		try (PrintWriter out = new PrintWriter(filename, "UTF-8")) {
+			if (filename.toLowerCase(Locale.ROOT).endsWith(".json"))
+				writeJson(out);
+			else
+				writeCsv(out);
+			if (out.checkError())
+				throw new IOException("Cannot write " + filename);
+		}
+	}
+}
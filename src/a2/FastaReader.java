@@ -0,0 +1,260 @@
+package a2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads DNA sequences from a file on the FASTA standard format by mapping
+ * the file into memory. Each record is decoded in a single pass over the
+ * mapped bytes: the name is taken from the header line and the symbols are
+ * packed straight into the words of a {@link Sequence}, without creating a
+ * String for every line. Files larger than what can be mapped at once are
+ * mapped a window at a time.
+ * 
+ * Records are read one at a time, so {@link #stream()} can process files
+ * that do not fit in memory.
+ */
+public class FastaReader implements Closeable {
+
+	private final static long MAP_WINDOW = 1L << 30; // bytes mapped at a time
+	private final static byte[] CODES = new byte[256]; // symbol code for each byte, or -1
+	static {
+		Arrays.fill(CODES, (byte) -1);
+		for (int i = 0; i < Sequence.alpha.length; i++)
+			CODES[Sequence.alpha[i]] = (byte) i;
+	}
+
+	private final String filename;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size; 		// size of file in bytes
+	private MappedByteBuffer buf; 	// currently mapped window
+	private long bufStart = 0; 		// file position of first byte in window
+	private long pos = 0; 			// file position of next byte to read
+
+	private boolean atHeader = false; // a '>' has been read but not its header
+	private long recordOffset = -1; // file position of the last header read
+	private int row = 0; 			// number of lines read so far
+
+	// buffer variables to hold the record being decoded
+	private byte[] name = new byte[64];
+	private long[] words = new long[16];
+
+	/**
+	 * Opens a FASTA file for reading.
+	 *
+	 * @param filename
+	 *            the name of the file
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public FastaReader(String filename) throws IOException {
+		this.filename = filename;
+		this.file = new RandomAccessFile(filename, "r");
+		this.channel = file.getChannel();
+		this.size = channel.size();
+	}
+
+	/**
+	 * Reads the next byte from the mapped file.
+	 *
+	 * @return the byte (0..255) or -1 at the end of the file
+	 */
+	private int read() throws IOException {
+		if (pos >= size)
+			return -1;
+		if (buf == null || pos - bufStart >= buf.limit()) {
+			bufStart = pos;
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, bufStart, Math.min(MAP_WINDOW, size - bufStart));
+		}
+		return buf.get((int) (pos++ - bufStart)) & 0xff;
+	}
+
+	/**
+	 * Skips lines until one that starts with '>' (ignoring leading blanks).
+	 *
+	 * @return true if a header was found, false at the end of the file
+	 */
+	private boolean findHeader() throws IOException {
+		boolean lineStart = true;
+		int ch;
+		while ((ch = read()) != -1) {
+			if (ch == '\n') {
+				row++;
+				lineStart = true;
+			} else if (lineStart && ch == '>') {
+				row++;
+				return true;
+			} else if (ch > ' ') {
+				lineStart = false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the next valid sequence from the file. Records with invalid
+	 * characters are reported and skipped, as by {@link Sequence#readFile}.
+	 *
+	 * @return the sequence, or null if there are no more sequences
+	 * @throws IOException
+	 *             if the file operation fails
+	 */
+	public Sequence next() throws IOException {
+		while (atHeader || findHeader()) {
+			atHeader = false;
+			recordOffset = pos - 1;
+			// the name is the first token after '>'
+			int nameLength = 0;
+			int ch = read();
+			while (ch > ' ') {
+				if (nameLength == name.length)
+					name = Arrays.copyOf(name, name.length * 2);
+				name[nameLength++] = (byte) ch;
+				ch = read();
+			}
+			while (ch != '\n' && ch != -1) // ignore the rest of the header
+				ch = read();
+			String seqName = new String(name, 0, nameLength, StandardCharsets.US_ASCII);
+
+			// the symbols are on the following lines up to the next header
+			int length = 0;
+			int invalid = -1; 	// first invalid character, if any
+			boolean lineStart = true;
+			int blank = -1; 	// a blank seen after symbols on this line, or -1
+			Arrays.fill(words, 0L);
+			while ((ch = read()) != -1) {
+				if (ch == '\n') {
+					row++;
+					lineStart = true;
+					blank = -1;
+				} else if (ch <= ' ') {
+					if (!lineStart) // leading and trailing blanks are trimmed
+						blank = ch;
+				} else if (lineStart && ch == '>') {
+					row++; // the header line, as counted by findHeader
+					atHeader = true;
+					break;
+				} else {
+					lineStart = false;
+					int code = CODES[ch];
+					if (blank != -1 || code < 0) {
+						if (invalid == -1)
+							invalid = blank != -1 ? blank : ch;
+						blank = -1;
+						continue;
+					}
+					if (length == words.length * Sequence.SYMBOLS_PER_WORD)
+						words = Arrays.copyOf(words, words.length * 2);
+					words[length / Sequence.SYMBOLS_PER_WORD] |= (long) code << ((length % Sequence.SYMBOLS_PER_WORD) * Sequence.BITS_PER_SYMBOL);
+					length++;
+				}
+			}
+			if (invalid != -1) {
+				System.err.println("Ignored " + seqName + ": Invalid character in sequence: " + escape(invalid));
+				continue;
+			}
+			return new Sequence(seqName, Arrays.copyOf(words, Sequence.wordsFor(length)), length);
+		}
+		return null;
+	}
+
+	/**
+	 * Shows a byte as a character, escaping those that do not print.
+	 */
+	private static String escape(int ch) {
+		switch (ch) {
+		case '\t':
+			return "\\t";
+		case '\r':
+			return "\\r";
+		case '\f':
+			return "\\f";
+		default:
+			return ch >= ' ' && ch < 0x7F ? String.valueOf((char) ch) : String.format("\\x%02X", ch);
+		}
+	}
+
+	/**
+	 * Streams the remaining sequences of the file, one record at a time.
+	 * Only the record being decoded is held in memory, so the stream can
+	 * be filtered, sampled or counted on files of any size. Closing the
+	 * stream closes this reader.
+	 * 
+	 * @return a sequential, ordered stream of sequences
+	 */
+	public Stream<Sequence> stream() {
+		Spliterator<Sequence> records = new Spliterators.AbstractSpliterator<Sequence>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			public boolean tryAdvance(Consumer<? super Sequence> action) {
+				Sequence seq;
+				try {
+					seq = next();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				if (seq == null)
+					return false;
+				action.accept(seq);
+				return true;
+			}
+		};
+		return StreamSupport.stream(records, false).onClose(new Runnable() {
+			public void run() {
+				try {
+					close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the file position of the header ('>') of the record last read
+	 * by {@link #next()}.
+	 *
+	 * @return the byte offset, or -1 if no record has been read
+	 */
+	public long getRecordOffset() {
+		return recordOffset;
+	}
+
+	/**
+	 * Retrieve the number of lines read so far.
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Retrieve the name of the file being read.
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Retrieve the size of the file in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public void close() throws IOException {
+		buf = null;
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,199 @@
+package a2;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class FastaReaderTest {
+
+	/**
+	 * Write a FASTA file with the given contents to a temporary file.
+	 */
+	static File write(String contents) throws IOException {
+		File file = File.createTempFile("fasta", ".fa");
+		file.deleteOnExit();
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(contents.getBytes(StandardCharsets.US_ASCII));
+		}
+		return file;
+	}
+
+	/**
+	 * Read all the sequences of a FASTA file with the given contents.
+	 */
+	static List<Sequence> read(String contents) throws IOException {
+		File file = write(contents);
+		List<Sequence> seqs = new ArrayList<Sequence>();
+		try (FastaReader reader = new FastaReader(file.getPath())) {
+			assertEquals(contents.length(), reader.getSize());
+			Sequence seq;
+			while ((seq = reader.next()) != null)
+				seqs.add(seq);
+		}
+		file.delete();
+		return seqs;
+	}
+
+	private static void assertSequence(String name, String symbols, Sequence seq) {
+		assertEquals(name + " (" + symbols.length() + ")", seq.toString());
+		assertEquals(symbols, new String(seq.getSymbolChars(true)));
+	}
+
+	@Test
+	public void testRecords() throws IOException {
+		List<Sequence> seqs = read(">S1 first\nACGT\n>S2\nGGCA\n");
+		assertEquals(2, seqs.size());
+		assertSequence("S1", "ACGT", seqs.get(0)); // the name is the first token
+		assertSequence("S2", "GGCA", seqs.get(1));
+	}
+
+	@Test
+	public void testLineEndings() throws IOException {
+		List<Sequence> seqs = read(">S1\r\nACGT\r\nTT\r\n>S2\r\nGGCA\r\n");
+		assertEquals(2, seqs.size());
+		assertSequence("S1", "ACGTTT", seqs.get(0));
+		assertSequence("S2", "GGCA", seqs.get(1));
+	}
+
+	@Test
+	public void testBlankLines() throws IOException {
+		List<Sequence> seqs = read("\n\n>S1\n\nACGT\n   \n  CC  \n\n>S2\nGGCA\n\n");
+		assertEquals(2, seqs.size());
+		assertSequence("S1", "ACGTCC", seqs.get(0)); // leading and trailing blanks are trimmed
+		assertSequence("S2", "GGCA", seqs.get(1));
+	}
+
+	@Test
+	public void testMultiLine() throws IOException {
+		// a record over several lines, longer than one packed word
+		StringBuilder symbols = new StringBuilder();
+		StringBuilder contents = new StringBuilder(">long\n");
+		for (int line = 0; line < 5; line++) {
+			String part = "ACGTTGCAGGATCCAT".substring(line, line + 11);
+			symbols.append(part);
+			contents.append(part).append('\n');
+		}
+		List<Sequence> seqs = read(contents.toString());
+		assertEquals(1, seqs.size());
+		assertSequence("long", symbols.toString(), seqs.get(0));
+		assertEquals(55, seqs.get(0).getLength());
+	}
+
+	@Test
+	public void testNoTrailingNewline() throws IOException {
+		List<Sequence> seqs = read(">S1\nACGT\n>S2\nGGCA");
+		assertEquals(2, seqs.size());
+		assertSequence("S2", "GGCA", seqs.get(1));
+		seqs = read(">S1\nACGT\r\nAC");
+		assertSequence("S1", "ACGTAC", seqs.get(0));
+	}
+
+	@Test
+	public void testInvalid() throws IOException {
+		// records with symbols other than A, C, G and T are skipped
+		List<Sequence> seqs = read(">S1\nACGT\n>S2\nACNT\n>S3\nacgt\n>S4\nAC GT\n>S5\nTTTT\n");
+		assertEquals(2, seqs.size());
+		assertSequence("S1", "ACGT", seqs.get(0));
+		assertSequence("S5", "TTTT", seqs.get(1));
+		// as are the lines before the first header, and '>' inside a line
+		seqs = read("ACGT\nnot a record\n>S1\nAC>GT\n>S2\nCC\n");
+		assertEquals(1, seqs.size());
+		assertSequence("S2", "CC", seqs.get(0));
+	}
+
+	@Test
+	public void testInvalidMessage() throws IOException {
+		// the first invalid byte is reported as it is, escaped if it does not print
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream stderr = System.err;
+		System.setErr(new PrintStream(err, true, "US-ASCII"));
+		try {
+			read(">S1\nAC\tGT\n>S2\nAC GT\n>S3\nACNT\n>S4\nAC\u0001T\n");
+		} finally {
+			System.setErr(stderr);
+		}
+		String[] lines = err.toString("US-ASCII").split("\r?\n");
+		assertEquals(4, lines.length);
+		assertEquals("Ignored S1: Invalid character in sequence: \\t", lines[0]);
+		assertEquals("Ignored S2: Invalid character in sequence:  ", lines[1]);
+		assertEquals("Ignored S3: Invalid character in sequence: N", lines[2]);
+		assertEquals("Ignored S4: Invalid character in sequence: \\x01", lines[3]);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertEquals(0, read("").size());
+		assertEquals(0, read("\n\n").size());
+		List<Sequence> seqs = read(">S1\n>S2\nAC\n");
+		assertEquals(2, seqs.size());
+		assertEquals(0, seqs.get(0).getLength());
+		assertSequence("S2", "AC", seqs.get(1));
+	}
+
+	@Test
+	public void testPosition() throws IOException {
+		File file = write("\n>S1\nAC\nGT\n>S2\nCC\n");
+		try (FastaReader reader = new FastaReader(file.getPath())) {
+			assertEquals(-1, reader.getRecordOffset());
+			assertEquals(file.getPath(), reader.getFilename());
+			reader.next();
+			assertEquals(1, reader.getRecordOffset());
+			reader.next();
+			assertEquals(11, reader.getRecordOffset());
+			assertEquals(null, reader.next());
+			assertEquals(6, reader.getRow());
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		File file = write(">S1\nACGT\n>S2\nACNT\n>S3\nGG\r\nCA\n>S4\n" + "ACGT".repeat(20) + "\n");
+		Sequence[] all = Sequence.readFile(file.getPath());
+		List<Sequence> streamed;
+		try (Stream<Sequence> seqs = Sequence.stream(file.getPath())) {
+			streamed = seqs.collect(Collectors.toList());
+		}
+		// the same records in the same order, the invalid one skipped by both
+		assertEquals(3, all.length);
+		assertEquals(all.length, streamed.size());
+		for (int i = 0; i < all.length; i++) {
+			assertEquals(all[i].toString(), streamed.get(i).toString());
+			for (boolean strand : new boolean[] { true, false })
+				assertTrue(Arrays.equals(all[i].getPackedWords(strand), streamed.get(i).getPackedWords(strand)));
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testStreamClose() throws IOException {
+		File file = write(">S1\nACGT\n>S2\nGGCA\n");
+		FastaReader reader = new FastaReader(file.getPath());
+		Stream<Sequence> seqs = reader.stream();
+		Iterator<Sequence> records = seqs.iterator();
+		assertSequence("S1", "ACGT", records.next());
+		seqs.close();
+		// the rest of the file can no longer be read
+		try {
+			reader.next();
+			fail("read from a closed reader");
+		} catch (IOException e) {
+			// closed with the stream
+		}
+		file.delete();
+	}
+}
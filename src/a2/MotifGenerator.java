@@ -0,0 +1,242 @@
+package a2;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates DNA sequences with a motif planted in each, as test data of
+ * any size. Every sequence is random but for one copy of the motif at a
+ * random position, where each symbol of the motif is mutated to another
+ * symbol with a given probability. If the reverse strand is used, each
+ * copy is planted on either strand with equal probability, i.e. half the
+ * sequences hold the reverse complement of the motif.
+ *
+ * The same seed always gives the same sequences, so a workload can be
+ * recreated from its parameters.
+ */
+public class MotifGenerator {
+
+	private final long seed;
+	private final int T; 			// number of sequences
+	private final int N; 			// length of each sequence
+	private final char[] motif; 	// the planted consensus
+	private double rate = 0.0; 		// probability of mutating a motif symbol
+	private boolean reverse = false; // plant on either strand
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param seed
+	 *            the seed of the random numbers
+	 * @param T
+	 *            the number of sequences
+	 * @param N
+	 *            the length of each sequence
+	 * @param motif
+	 *            the motif to plant, of A, C, G and T and no longer than N
+	 */
+	public MotifGenerator(long seed, int T, int N, String motif) {
+		if (T < 1 || N < 1 || motif.length() > N)
+			throw new RuntimeException("Invalid workload: " + T + " sequences of length " + N + ", motif of length "
+					+ motif.length());
+		for (int k = 0; k < motif.length(); k++)
+			if (Sequence.toIndex(motif.charAt(k)) == 0)
+				throw new RuntimeException("Invalid symbol in motif: " + motif.charAt(k));
+		this.seed = seed;
+		this.T = T;
+		this.N = N;
+		this.motif = motif.toCharArray();
+	}
+
+	/**
+	 * Draw a random motif.
+	 *
+	 * @param seed
+	 *            the seed of the random numbers
+	 * @param length
+	 *            the length of the motif
+	 * @return the motif
+	 */
+	public static String randomMotif(long seed, int length) {
+		Random random = new Random(new Random(seed).nextLong()); // not the numbers of the sequences
+		char[] motif = new char[length];
+		for (int k = 0; k < length; k++)
+			motif[k] = Sequence.alpha[random.nextInt(Sequence.alpha.length)];
+		return new String(motif);
+	}
+
+	/**
+	 * Set the probability that a symbol of a planted copy is mutated (the
+	 * default is 0, for exact copies).
+	 */
+	public void setMutationRate(double rate) {
+		if (rate < 0 || rate > 1)
+			throw new RuntimeException("Invalid mutation rate: " + rate);
+		this.rate = rate;
+	}
+
+	/**
+	 * Choose whether copies are also planted on the reverse strand.
+	 */
+	public void setReverse(boolean reverse) {
+		this.reverse = reverse;
+	}
+
+	/**
+	 * Generate the symbols and names of the sequences.
+	 *
+	 * @param names
+	 *            receives the name of each sequence, which tells where the
+	 *            motif was planted
+	 * @return the symbols of each sequence
+	 */
+	private char[][] generate(String[] names) {
+		Random random = new Random(seed);
+		char[][] seqs = new char[T][N];
+		for (int i = 0; i < T; i++) {
+			for (int j = 0; j < N; j++)
+				seqs[i][j] = Sequence.alpha[random.nextInt(Sequence.alpha.length)];
+			int position = random.nextInt(N - motif.length + 1);
+			boolean strand = !reverse || random.nextBoolean();
+			for (int k = 0; k < motif.length; k++) {
+				// the reverse strand holds the complement in reverse order
+				int symbol = strand ? Sequence.toIndex(motif[k])
+						: 5 - Sequence.toIndex(motif[motif.length - 1 - k]);
+				if (random.nextDouble() < rate) // any of the other three
+					symbol = (symbol + random.nextInt(Sequence.alpha.length - 1)) % Sequence.alpha.length + 1;
+				seqs[i][position + k] = Sequence.toChar(symbol);
+			}
+			names[i] = "S" + (i + 1) + " motif at " + position + (strand ? " +" : " -");
+		}
+		return seqs;
+	}
+
+	/**
+	 * Generate the sequences.
+	 *
+	 * @return the sequences
+	 */
+	public Sequence[] generate() {
+		String[] names = new String[T];
+		char[][] symbols = generate(names);
+		Sequence[] seqs = new Sequence[T];
+		for (int i = 0; i < T; i++)
+			seqs[i] = new Sequence(names[i], symbols[i]);
+		return seqs;
+	}
+
+	/**
+	 * Write the sequences on the FASTA format, as read by
+	 * {@link Sequence#readFile}.
+	 *
+	 * @param out
+	 *            receives the records
+	 */
+	public void write(Writer out) {
+		String[] names = new String[T];
+		char[][] symbols = generate(names);
+		PrintWriter print = new PrintWriter(out);
+		for (int i = 0; i < T; i++) {
+			print.println(">" + names[i]);
+			print.println(symbols[i]);
+		}
+		print.flush();
+	}
+
+	/**
+	 * Write the sequences to a FASTA file.
+	 *
+	 * @param filename
+	 *            the name of the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String filename) throws IOException {
+		try (Writer out = new FileWriter(filename)) {
+			write(out);
+		}
+	}
+
+	/**
+	 * A command line application that writes a workload.
+	 * -t <#> (number of sequences; default 100)
+	 * -n <#> (length of each sequence; default 10)
+	 * -m <motif> (the motif to plant; default random)
+	 * -k <#> (length of the random motif; default N - 2)
+	 * -e <rate> (probability of mutating a motif symbol; default 0.1)
+	 * -r (plant on either strand)
+	 * -s <#> (seed; default 1)
+	 * -o <filename> (the FASTA file to write; default standard output)
+	 *
+	 * @param args command line parameters
+	 */
+	public static void main(String[] args) {
+		int T = 100;
+		int N = 10;
+		String motif = null;
+		int length = -1;
+		double rate = 0.1;
+		boolean reverse = false;
+		long seed = 1;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].charAt(0) != '-' || args[i].length() < 2)
+				continue;
+			switch (args[i].charAt(1)) {
+			case 't':
+				if (i + 1 < args.length)
+					T = Integer.parseInt(args[++i]);
+				break;
+			case 'n':
+				if (i + 1 < args.length)
+					N = Integer.parseInt(args[++i]);
+				break;
+			case 'm':
+				if (i + 1 < args.length)
+					motif = args[++i].toUpperCase();
+				break;
+			case 'k':
+				if (i + 1 < args.length)
+					length = Integer.parseInt(args[++i]);
+				break;
+			case 'e':
+				if (i + 1 < args.length)
+					rate = Double.parseDouble(args[++i]);
+				break;
+			case 'r':
+				reverse = true;
+				break;
+			case 's':
+				if (i + 1 < args.length)
+					seed = Long.parseLong(args[++i]);
+				break;
+			case 'o':
+				if (i + 1 < args.length)
+					file = args[++i];
+				break;
+			default:
+				System.err.println("Unknown option \"-" + args[i].charAt(1) + "\"");
+				System.err.println("Usage: MotifGenerator [-t <sequences>] [-n <length>] [-m <motif> | -k <motif-length>] [-e <mutation-rate>] [-r] [-s <seed>] [-o <filename>]");
+				System.exit(1);
+			}
+		}
+		if (motif == null)
+			motif = randomMotif(seed, length < 0 ? Math.max(1, N - 2) : length);
+		MotifGenerator generator = new MotifGenerator(seed, T, N, motif);
+		generator.setMutationRate(rate);
+		generator.setReverse(reverse);
+		try {
+			if (file == null)
+				generator.write(new OutputStreamWriter(System.out));
+			else
+				generator.write(file);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package a2;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MotifGeneratorTest {
+
+	String motif = "GATTC";
+	PerfMeter perf = new PerfMeter();
+
+	@Test
+	public void testPlanted() {
+		for (boolean reverse : new boolean[] { false, true }) {
+			MotifGenerator generator = new MotifGenerator(3, 6, 8, motif);
+			generator.setReverse(reverse);
+			Sequence[] dna = generator.generate();
+			assertEquals(6, dna.length);
+			assertEquals(8, dna[0].getLength());
+			// exact copies: a consensus with the motif matches it in every sequence
+			Consensus problem = new Consensus(perf, dna, reverse, 0);
+			int[] prefix = new int[2 * 8 - 1];
+			Arrays.fill(prefix, -1);
+			assertTrue(problem.findConsensus(prefix, 0).actual >= dna.length * motif.length());
+		}
+	}
+
+	@Test
+	public void testSameSeed() {
+		for (boolean reverse : new boolean[] { false, true }) {
+			MotifGenerator one = new MotifGenerator(3, 6, 8, motif);
+			one.setMutationRate(0.3);
+			one.setReverse(reverse);
+			MotifGenerator two = new MotifGenerator(3, 6, 8, motif);
+			two.setMutationRate(0.3);
+			two.setReverse(reverse);
+			Sequence[] a = one.generate();
+			Sequence[] b = two.generate();
+			Sequence[] again = one.generate();
+			for (int i = 0; i < a.length; i++) {
+				assertEquals(a[i].toString(), b[i].toString()); // the name tells where the motif is
+				assertTrue(Arrays.equals(a[i].getSymbolChars(true), b[i].getSymbolChars(true)));
+				assertTrue(Arrays.equals(a[i].getSymbolChars(true), again[i].getSymbolChars(true)));
+			}
+			// another seed gives other sequences
+			Sequence[] other = new MotifGenerator(4, 6, 8, motif).generate();
+			boolean differ = false;
+			for (int i = 0; i < a.length; i++)
+				differ |= !Arrays.equals(a[i].getSymbolChars(true), other[i].getSymbolChars(true));
+			assertTrue(differ);
+		}
+		assertEquals(MotifGenerator.randomMotif(5, 8), MotifGenerator.randomMotif(5, 8));
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		MotifGenerator generator = new MotifGenerator(3, 6, 8, motif);
+		generator.setReverse(true);
+		Sequence[] dna = generator.generate();
+		// the same sequences again from the seed, through a file
+		File file = File.createTempFile("motif", ".fa");
+		generator.write(file.getPath());
+		Sequence[] read = Sequence.readFile(file.getPath());
+		file.delete();
+		assertEquals(dna.length, read.length);
+		for (int i = 0; i < dna.length; i++)
+			assertTrue(Arrays.equals(dna[i].getSymbolChars(true), read[i].getSymbolChars(true)));
+	}
+
+	@Test
+	public void testMutated() {
+		// a mutated copy differs from the motif
+		MotifGenerator generator = new MotifGenerator(3, 1, 5, motif);
+		generator.setMutationRate(1);
+		assertFalse(Arrays.equals(motif.toCharArray(), generator.generate()[0].getSymbolChars(true)));
+	}
+}
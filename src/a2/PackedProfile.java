@@ -0,0 +1,277 @@
+package a2;
+
+import java.util.Arrays;
+
+/**
+ * The profile of an alignment with its counts packed into machine words:
+ * each count takes a byte, the four counts of a column take 32 bits and a
+ * long holds two columns. Placing a sequence adds a few precomputed words
+ * rather than one count per symbol, and the max count and the consensus
+ * symbol of all columns in a word are found together with SIMD within a
+ * register (SWAR) operations instead of comparing the four rows one
+ * column at a time. This is an alternative to the int[4][W] profile of
+ * {@link Alignment#getProfile(int[])}; counts must not exceed 255, so at
+ * most 255 sequences can be aligned.
+ */
+public class PackedProfile {
+
+	private final static long COLUMN_BYTES = 0x01010101L; 		// 1 in every byte of a column
+	private final static long BYTE_HIGH = 0x8080808080808080L; 	// top bit of every byte
+	private final static long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+	private final static long HALF_LOW = 0x0000FFFF0000FFFFL; 	// low 16 bits of each column
+	private final static long LANE16_HIGH = 0x8000800080008000L; // top bit of every 16 bits
+	private final static long LANE32_HIGH = 0x8000000080000000L; // top bit of every 32 bits
+
+	/**
+	 * The maximum number of sequences that can be counted.
+	 */
+	public final static int MAX_COUNT = 255;
+
+	private final int W; 			// number of columns
+	private final long[] words; 	// column c in bits 32 * (c % 2) of words[c / 2]
+	private final long[] maxColumns = new long[Sequence.alpha.length]; // see getMaxColumns
+	private boolean maxValid = false; // maxColumns is up to date
+
+	/**
+	 * Creates an empty profile.
+	 *
+	 * @param W
+	 *            the number of columns
+	 */
+	public PackedProfile(int W) {
+		this.W = W;
+		this.words = new long[wordsFor(W)];
+	}
+
+	/**
+	 * The number of words needed for a profile with W columns.
+	 */
+	public static int wordsFor(int W) {
+		return (W + 1) / 2;
+	}
+
+	/**
+	 * Pack the symbols of a sequence as the increment it makes to a profile,
+	 * placed at the first or the second column of a word. A sequence placed
+	 * at column c adds the increment for parity c % 2 starting at word c / 2.
+	 *
+	 * @param seq
+	 *            the sequence
+	 * @param strand
+	 *            true for the original strand
+	 * @param parity
+	 *            0 to start at the first column of a word, 1 for the second
+	 * @return the increment, one long per two columns
+	 */
+	public static long[] increment(Sequence seq, boolean strand, int parity) {
+		int N = seq.getLength();
+		long[] packed = seq.getPackedWords(strand);
+		long[] inc = new long[wordsFor(N + parity)];
+		for (int j = 0; j < N; j++) {
+			int c = j + parity;
+			inc[c >> 1] += 1L << (32 * (c & 1) + 8 * Sequence.codeAt(packed, j));
+		}
+		return inc;
+	}
+
+	/**
+	 * Add an increment at a column (see {@link #increment}).
+	 *
+	 * @param inc
+	 *            the increment, for the parity of column
+	 * @param column
+	 *            the first column of the sequence
+	 */
+	public void add(long[] inc, int column) {
+		maxValid = false;
+		int w = column >> 1;
+		for (int k = 0; k < inc.length; k++)
+			words[w + k] += inc[k]; // counts stay below 256, so no byte carries
+	}
+
+	/**
+	 * Remove an increment added by {@link #add(long[], int)}.
+	 */
+	public void subtract(long[] inc, int column) {
+		maxValid = false;
+		int w = column >> 1;
+		for (int k = 0; k < inc.length; k++)
+			words[w + k] -= inc[k];
+	}
+
+	/**
+	 * The sum of the max counts of the two columns of a word.
+	 */
+	private static int maxSum(long x) {
+		long m = columnMax(x);
+		return (int) (m & 0xFFFF) + (int) (m >>> 32);
+	}
+
+	/**
+	 * Add an increment at a column and determine how much the score rose.
+	 *
+	 * @return the increase in score
+	 */
+	public int place(long[] inc, int column) {
+		maxValid = false;
+		int w = column >> 1;
+		int gain = 0;
+		for (int k = 0; k < inc.length; k++) {
+			long before = words[w + k];
+			long after = before + inc[k];
+			words[w + k] = after;
+			gain += maxSum(after) - maxSum(before);
+		}
+		return gain;
+	}
+
+	/**
+	 * Remove an increment and determine how much the score fell.
+	 *
+	 * @return the decrease in score
+	 */
+	public int unplace(long[] inc, int column) {
+		maxValid = false;
+		int w = column >> 1;
+		int loss = 0;
+		for (int k = 0; k < inc.length; k++) {
+			long before = words[w + k];
+			long after = before - inc[k];
+			words[w + k] = after;
+			loss += maxSum(before) - maxSum(after);
+		}
+		return loss;
+	}
+
+	/**
+	 * Determine how much adding an increment would raise the score.
+	 */
+	public int gain(long[] inc, int column) {
+		int w = column >> 1;
+		int gain = 0;
+		for (int k = 0; k < inc.length; k++) {
+			long x = words[w + k];
+			gain += maxSum(x + inc[k]) - maxSum(x);
+		}
+		return gain;
+	}
+
+	/**
+	 * Remove all counts.
+	 */
+	public void clear() {
+		maxValid = false;
+		Arrays.fill(words, 0L);
+	}
+
+	/**
+	 * Retrieve the count of a symbol in a column.
+	 *
+	 * @param code
+	 *            the symbol code (0..3)
+	 * @param column
+	 *            the column
+	 */
+	public int getCount(int code, int column) {
+		return (int) (words[column >> 1] >>> (32 * (column & 1) + 8 * code)) & 0xFF;
+	}
+
+	/**
+	 * Retrieve the max count of a column.
+	 */
+	public int getMax(int column) {
+		return (int) (columnMax(words[column >> 1]) >>> (32 * (column & 1))) & 0xFF;
+	}
+
+	/**
+	 * The max of the four counts of each of the two columns of a word, in
+	 * the low 16 bits of each column's 32 bits.
+	 */
+	private static long columnMax(long x) {
+		// max of bytes 0 and 1, and of bytes 2 and 3, in 16-bit lanes
+		long m = max(x & EVEN_BYTES, (x >>> 8) & EVEN_BYTES, LANE16_HIGH, 16);
+		// max of the two 16-bit lanes in 32-bit lanes
+		return max(m & HALF_LOW, (m >>> 16) & HALF_LOW, LANE32_HIGH, 32);
+	}
+
+	/**
+	 * The lane-wise max of two words of lanes whose values leave the top bit
+	 * of each lane clear.
+	 */
+	private static long max(long a, long b, long high, int lane) {
+		long ge = ((a | high) - b) & high; 		// top bit set where a >= b
+		long mask = (ge >>> (lane - 1)) * ((1L << lane) - 1); // all ones there
+		return (a & mask) | (b & ~mask);
+	}
+
+	/**
+	 * Determine the score of the profile: the sum over columns of the max
+	 * count.
+	 */
+	public int getScore() {
+		int score = 0;
+		for (int w = 0; w < words.length; w++) {
+			long m = columnMax(words[w]);
+			score += (int) (m & 0xFFFF) + (int) (m >>> 32); // an unused last column counts 0
+		}
+		return score;
+	}
+
+	/**
+	 * Find the symbol with the max count of each column; the first such
+	 * symbol if several share it, as by {@link Alignment#getConsensus}.
+	 *
+	 * @return the symbol indices (A=1, C=2, G=3 and T=4) of the columns
+	 */
+	public int[] getConsensus() {
+		int[] sym = new int[W];
+		for (int w = 0; w < words.length; w++) {
+			long x = words[w];
+			long m = columnMax(x) & 0x000000FF000000FFL;
+			// bytes equal to their column's max have their top bit set
+			long diff = x ^ (m * COLUMN_BYTES); // the max in every byte of its column
+			long zero = ~(((diff & ~BYTE_HIGH) + ~BYTE_HIGH) | diff | ~BYTE_HIGH) & BYTE_HIGH;
+			for (int half = 0; half < 2 && 2 * w + half < W; half++) {
+				int bits = (int) (zero >>> (32 * half));
+				sym[2 * w + half] = Integer.numberOfTrailingZeros(bits) / 8 + 1;
+			}
+		}
+		return sym;
+	}
+
+	/**
+	 * Find the columns where a symbol has the max count (W <= 64).
+	 *
+	 * @param code
+	 *            the symbol code (0..3)
+	 * @return bit c set if the symbol has the max count of column c
+	 */
+	public long getMaxColumns(int code) {
+		if (!maxValid) {
+			Arrays.fill(maxColumns, 0L);
+			for (int w = 0; w < words.length; w++) {
+				long x = words[w];
+				long m = columnMax(x) & 0x000000FF000000FFL;
+				long diff = x ^ (m * COLUMN_BYTES);
+				long zero = ~(((diff & ~BYTE_HIGH) + ~BYTE_HIGH) | diff | ~BYTE_HIGH) & BYTE_HIGH;
+				for (int a = 0; a < maxColumns.length; a++)
+					maxColumns[a] |= ((zero >>> (8 * a + 7)) & 1) << (2 * w) | ((zero >>> (8 * a + 39)) & 1) << (2 * w + 1);
+			}
+			maxValid = true;
+		}
+		return maxColumns[code];
+	}
+
+	/**
+	 * Unpack the counts into the layout of {@link Alignment#getProfile}.
+	 *
+	 * @return the count of each symbol (row) in each column
+	 */
+	public int[][] toArray() {
+		int[][] profile = new int[Sequence.alpha.length][W];
+		for (int a = 0; a < profile.length; a++)
+			for (int c = 0; c < W; c++)
+				profile[a][c] = getCount(a, c);
+		return profile;
+	}
+}
@@ -0,0 +1,290 @@
+package a2;
+
+/**
+ * A bound on what the remaining sequences of an alignment can add, built
+ * from the best agreement between pairs of sequences.
+ * 
+ * The score of an alignment is the sum over columns of the largest symbol
+ * count. Two estimates are combined, and the lower one is used.
+ * 
+ * First, the largest count of a column is at most the largest count of the
+ * placed sequences plus that of the remaining ones. So the remaining
+ * sequences R can add at most the score of the best alignment of R on its
+ * own. That is at most the sum of the best scores of any split of R into
+ * pairs, and the best score of a pair is 2N less the fewest mismatches in
+ * their overlap at any relative offset and strand that fits the width.
+ * 
+ * Second, a remaining sequence can only raise the count of a column if its
+ * symbol is one of the most frequent among the placed sequences there, or
+ * if another remaining sequence ends up with the same symbol in that
+ * column. The first is counted from the profile for every offset; the
+ * second is at most the sum of its best agreements with the other
+ * remaining sequences.
+ */
+public class PairwiseBound implements AlignmentBound {
+
+	private final Sequence[] dna;
+	private final int N; 			// sequence length
+	private final int W; 			// width of alignment
+	private final int T; 			// number of sequences
+	private final int shifts; 		// relative offsets -(W-N)..W-N
+	private final int strands;
+	private final int[][] agree; 	// agreement of pair (a, b), a < b, at [pair][strand * shifts + shift]
+	private final int[] suffix; 	// bound for sequences level..T-1 from splitting into pairs
+	private final int[][] others; 	// [level][k - level]: best agreement of k with the others in level..T-1
+	private final long[][] positions; // [k * strands + strand][symbol]: bit j set if symbol is at position j (N <= 64)
+
+	/**
+	 * Computes the pairwise agreement table and the estimates that only
+	 * depend on the level.
+	 * 
+	 * @param dna
+	 *            the sequences in the order they are placed
+	 * @param reverse
+	 *            whether sequences may be placed on the reverse strand
+	 * @param W
+	 *            the width of the alignment
+	 */
+	public PairwiseBound(Sequence[] dna, boolean reverse, int W) {
+		this.dna = dna;
+		this.T = dna.length;
+		this.N = T > 0 ? dna[0].getLength() : 0;
+		this.W = W;
+		this.shifts = 2 * (W - N) + 1;
+		this.strands = reverse ? 2 : 1;
+		this.agree = new int[T * (T - 1) / 2][strands * shifts];
+		for (int a = 0; a < T; a++)
+			for (int b = a + 1; b < T; b++)
+				fillAgreement(dna[a], dna[b], agree[pair(a, b)]);
+
+		// sum of the best pair scores over all pairs a < b in level..T-1
+		long[] pairSum = new long[T + 1];
+		for (int a = T - 1; a >= 0; a--) {
+			pairSum[a] = pairSum[a + 1];
+			for (int b = a + 1; b < T; b++)
+				pairSum[a] += getBestPairScore(a, b);
+		}
+		this.suffix = new int[T + 2];
+		for (int level = T - 1; level >= 0; level--) {
+			// split into consecutive pairs, or leave this one on its own
+			int bound = N + suffix[level + 1];
+			if (level + 1 < T)
+				bound = Math.min(bound, getBestPairScore(level, level + 1) + suffix[level + 2]);
+			// the average over all splits into pairs is no less than the best
+			int m = T - level;
+			if (m >= 2) {
+				long average = m % 2 == 0 ? pairSum[level] / (m - 1) : N + pairSum[level] / m;
+				bound = (int) Math.min(bound, average);
+			}
+			suffix[level] = bound;
+		}
+
+		// bit masks of each symbol, used to match against the profile when
+		// the alignment fits in a word
+		this.positions = W <= Long.SIZE ? new long[T * strands][Sequence.alpha.length] : null;
+		for (int k = 0; positions != null && k < T; k++)
+			for (int strand = 0; strand < strands; strand++)
+				for (int j = 0; j < N; j++)
+					positions[k * strands + strand][dna[k].getSymbolIndex(j, strand == 0) - 1] |= 1L << j;
+
+		this.others = new int[T + 1][];
+		for (int level = 0; level <= T; level++) {
+			others[level] = new int[T - level];
+			for (int k = level; k < T; k++)
+				for (int b = level; b < T; b++)
+					if (b != k)
+						others[level][k - level] += getBestAgreement(k, b);
+		}
+	}
+
+	/**
+	 * Index of the pair a < b in the agreement table.
+	 */
+	private int pair(int a, int b) {
+		return b * (b - 1) / 2 + a;
+	}
+
+	/**
+	 * Count the agreeing positions of a (original strand) and b (either
+	 * strand) for every shift of b relative to a.
+	 */
+	private void fillAgreement(Sequence a, Sequence b, int[] table) {
+		long[] seqA = a.getPackedWords(true);
+		for (int strand = 0; strand < strands; strand++) {
+			long[] seqB = b.getPackedWords(strand == 0);
+			for (int d = -(W - N); d <= W - N; d++) {
+				int matches = 0;
+				for (int p = Math.max(0, d); p < Math.min(N, N + d); p++)
+					if (Sequence.codeAt(seqA, p) == Sequence.codeAt(seqB, p - d))
+						matches++;
+				table[strand * shifts + d + (W - N)] = matches;
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the number of positions on which two sequences agree when b
+	 * is placed shift columns to the right of a.
+	 * 
+	 * @param a
+	 *            a sequence (original strand)
+	 * @param b
+	 *            another sequence
+	 * @param strand
+	 *            the strand of b, original (True) or reverse (False)
+	 * @param shift
+	 *            the offset of b minus the offset of a, -(W-N)..W-N
+	 * @return the number of agreeing positions
+	 */
+	public int getAgreement(int a, int b, boolean strand, int shift) {
+		if (a == b)
+			throw new IllegalArgumentException("Agreement of a sequence with itself");
+		if (a > b) { // view the pair from b instead
+			if (!strand) // the reverse of b against a mirrors a against b
+				return getAgreement(b, a, false, shift);
+			return getAgreement(b, a, true, -shift);
+		}
+		if (!strand && strands == 1)
+			throw new IllegalArgumentException("Reverse strand not considered");
+		return agree[pair(a, b)][(strand ? 0 : shifts) + shift + (W - N)];
+	}
+
+	/**
+	 * Retrieve the most positions on which two sequences can agree.
+	 */
+	public int getBestAgreement(int a, int b) {
+		int[] table = agree[a < b ? pair(a, b) : pair(b, a)];
+		int best = 0;
+		for (int i = 0; i < table.length; i++)
+			if (table[i] > best)
+				best = table[i];
+		return best;
+	}
+
+	/**
+	 * Retrieve the best score of an alignment of two sequences on their own:
+	 * 2N less the mismatches in their overlap.
+	 */
+	public int getBestPairScore(int a, int b) {
+		int[] table = agree[a < b ? pair(a, b) : pair(b, a)];
+		int best = 0;
+		for (int i = 0; i < table.length; i++) {
+			int overlap = N - Math.abs(i % shifts - (W - N));
+			if (2 * N - overlap + table[i] > best)
+				best = 2 * N - overlap + table[i];
+		}
+		return best;
+	}
+
+	public int remaining(int level, int[][] profile, int[] colMax) {
+		// bit c of mask a is set if symbol a is most frequent in column c;
+		// held in locals so that the bound allocates nothing
+		long mask0 = 0, mask1 = 0, mask2 = 0, mask3 = 0;
+		boolean masked = false;
+		int total = 0;
+		for (int k = level; k < T; k++) {
+			int gain = N;
+			if (others[level][k - level] < N) {
+				int matches;
+				if (positions != null) {
+					if (!masked) {
+						for (int c = 0; c < W; c++) {
+							if (profile[0][c] == colMax[c])
+								mask0 |= 1L << c;
+							if (profile[1][c] == colMax[c])
+								mask1 |= 1L << c;
+							if (profile[2][c] == colMax[c])
+								mask2 |= 1L << c;
+							if (profile[3][c] == colMax[c])
+								mask3 |= 1L << c;
+						}
+						masked = true;
+					}
+					matches = matchMax(k, mask0, mask1, mask2, mask3);
+				} else
+					matches = matchMax(k, profile, colMax);
+				gain = Math.min(N, matches + others[level][k - level]);
+			}
+			total += gain;
+		}
+		return Math.min(total, suffix[level]);
+	}
+
+	public int remaining(int level, PackedProfile profile) {
+		int total = 0;
+		for (int k = level; k < T; k++) {
+			int gain = N;
+			if (others[level][k - level] < N) {
+				int matches = positions == null ? matchMax(k, profile)
+						: matchMax(k, profile.getMaxColumns(0), profile.getMaxColumns(1),
+								profile.getMaxColumns(2), profile.getMaxColumns(3));
+				gain = Math.min(N, matches + others[level][k - level]);
+			}
+			total += gain;
+		}
+		return Math.min(total, suffix[level]);
+	}
+
+	/**
+	 * Count the positions of a sequence that match a most frequent symbol of
+	 * the profile, at the best offset and strand, given the columns where
+	 * each symbol is most frequent.
+	 */
+	private int matchMax(int k, long mask0, long mask1, long mask2, long mask3) {
+		int best = 0;
+		for (int strand = 0; strand < strands; strand++) {
+			long[] bits = positions[k * strands + strand];
+			for (int o = 0; o <= W - N; o++) {
+				int matches = Long.bitCount(bits[0] & (mask0 >>> o)) + Long.bitCount(bits[1] & (mask1 >>> o))
+						+ Long.bitCount(bits[2] & (mask2 >>> o)) + Long.bitCount(bits[3] & (mask3 >>> o));
+				if (matches > best)
+					best = matches;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Count the positions of a sequence that match a most frequent symbol of
+	 * the profile, at the best offset and strand.
+	 */
+	private int matchMax(int k, int[][] profile, int[] colMax) {
+		int best = 0;
+		for (int strand = 0; strand < strands; strand++) {
+			long[] words = dna[k].getPackedWords(strand == 0);
+			for (int o = 0; o <= W - N; o++) {
+				int matches = 0;
+				for (int j = 0; j < N; j++)
+					if (profile[Sequence.codeAt(words, j)][o + j] == colMax[o + j])
+						matches++;
+				if (matches > best)
+					best = matches;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Count the positions of a sequence that match a most frequent symbol of
+	 * a packed profile, at the best offset and strand.
+	 */
+	private int matchMax(int k, PackedProfile profile) {
+		int best = 0;
+		for (int strand = 0; strand < strands; strand++) {
+			long[] words = dna[k].getPackedWords(strand == 0);
+			for (int o = 0; o <= W - N; o++) {
+				int matches = 0;
+				for (int j = 0; j < N; j++)
+					if (profile.getCount(Sequence.codeAt(words, j), o + j) == profile.getMax(o + j))
+						matches++;
+				if (matches > best)
+					best = matches;
+			}
+		}
+		return best;
+	}
+
+	public String toString() {
+		return "pairwise";
+	}
+}
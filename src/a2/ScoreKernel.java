@@ -0,0 +1,159 @@
+package a2;
+
+/**
+ * The inner loop of the consensus search: adding the matches of one more
+ * symbol to the match counts of every sequence at every offset, and
+ * scoring the result. Nearly all of the time of {@link Consensus} is spent
+ * here.
+ *
+ * The counts are laid out offset by offset, and within an offset row by
+ * row, where the rows are all sequences on the original strand followed by
+ * all sequences on the reverse strand (if used). Entry i * rows + r holds
+ * the matches of row r placed at offset i. Every step of the loop then
+ * does the same to a run of consecutive rows, which a vector unit can do
+ * many rows at a time.
+ */
+public interface ScoreKernel {
+
+	/**
+	 * Add a symbol and score the counts.
+	 *
+	 * @param from
+	 *            the counts before the symbol
+	 * @param to
+	 *            receives the counts with the symbol
+	 * @param codes
+	 *            [position][row]: the symbol code of each row at each
+	 *            position
+	 * @param level
+	 *            the position of the symbol in the consensus
+	 * @param code
+	 *            the symbol code (0..3)
+	 * @param lo
+	 *            the first offset whose sequence covers the position
+	 * @param hi
+	 *            the last offset whose sequence covers the position
+	 * @param open
+	 *            [offset]: the positions after level that the sequence at
+	 *            the offset still covers
+	 * @return the score: the sum over sequences of the most matches at any
+	 *         offset and strand
+	 */
+	int fill(int[] from, int[] to, int[][] codes, int level, int code, int lo, int hi, int[] open);
+
+	/**
+	 * Retrieve the optimistic bound of the last fill: the sum over sequences
+	 * of the most, at any offset and strand, of the matches plus the open
+	 * positions.
+	 */
+	int getBound();
+
+	/**
+	 * The plain Java kernel, used when the vector API is not available.
+	 */
+	public static class Scalar implements ScoreKernel {
+
+		private final int T; 		// number of sequences
+		private final int rows; 	// number of rows (T times the number of strands)
+		private final int offsets; 	// number of offsets
+		private int bound;
+
+		public Scalar(int T, int strands, int offsets) {
+			this.T = T;
+			this.rows = T * strands;
+			this.offsets = offsets;
+		}
+
+		public int fill(int[] from, int[] to, int[][] codes, int level, int code, int lo, int hi, int[] open) {
+			System.arraycopy(from, 0, to, 0, to.length);
+			for (int i = lo; i <= hi; i++) {
+				int[] symbols = codes[level - i];
+				int base = i * rows;
+				for (int r = 0; r < rows; r++)
+					if (symbols[r] == code)
+						to[base + r]++;
+			}
+			int totscore = 0;
+			int totbound = 0;
+			for (int j = 0; j < T; j++) {
+				int bestscore = 0;
+				int bestbound = 0;
+				for (int r = j; r < rows; r += T) // each strand
+					for (int i = 0; i < offsets; i++) {
+						int count = to[i * rows + r];
+						if (count > bestscore)
+							bestscore = count;
+						if (count + open[i] > bestbound)
+							bestbound = count + open[i];
+					}
+				totscore += bestscore;
+				totbound += bestbound;
+			}
+			bound = totbound;
+			return totscore;
+		}
+
+		public int getBound() {
+			return bound;
+		}
+
+		public String toString() {
+			return "scalar";
+		}
+	}
+
+	/**
+	 * Creates kernels, using the vector API if asked and available. The
+	 * vector kernel is in a source set of its own (vector/) and needs the
+	 * incubator module (javac and java with --add-modules
+	 * jdk.incubator.vector); if it has not been compiled, or the module is
+	 * missing, the class is not found or fails to load and the scalar
+	 * kernel is used instead.
+	 */
+	public static class Factory {
+
+		private static final Class<?> VECTOR = load();
+
+		private static Class<?> load() {
+			try {
+				Class<?> kernel = Class.forName("a2.VectorScoreKernel");
+				kernel.getConstructor(int.class, int.class, int.class).newInstance(1, 1, 1); // links the module
+				return kernel;
+			} catch (ReflectiveOperationException | LinkageError e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Determine whether the vector kernel can be used.
+		 */
+		public static boolean hasVector() {
+			return VECTOR != null;
+		}
+
+		/**
+		 * Creates a kernel.
+		 *
+		 * @param vector
+		 *            use the vector kernel if it is available
+		 * @param T
+		 *            the number of sequences
+		 * @param strands
+		 *            1, or 2 to include the reverse strand
+		 * @param offsets
+		 *            the number of offsets
+		 * @return the kernel
+		 */
+		public static ScoreKernel create(boolean vector, int T, int strands, int offsets) {
+			if (vector && VECTOR != null) {
+				try {
+					return (ScoreKernel) VECTOR.getConstructor(int.class, int.class, int.class).newInstance(T, strands,
+							offsets);
+				} catch (ReflectiveOperationException e) {
+					// use the scalar kernel
+				}
+			}
+			return new Scalar(T, strands, offsets);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package a2;
+
+import java.util.Arrays;
+
+/**
+ * Controls a running search: it can be given a wall-clock budget, be
+ * cancelled from another thread, and it keeps the best complete solution
+ * found so far. The search engines check it at every node and, once it
+ * says stop, abandon the rest of the tree and return what they have. The
+ * bounds of the abandoned nodes are kept so that the remaining optimality
+ * gap can be reported.
+ */
+public class SearchControl {
+
+	/**
+	 * Receives every improvement of the best solution as it is found.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a better complete solution has been found.
+		 *
+		 * @param score
+		 *            the score of the solution
+		 * @param path
+		 *            the offset indices (alignment) or symbols (consensus)
+		 *            of the solution; must not be modified
+		 * @param elapsed
+		 *            nanoseconds since the control was created
+		 */
+		void improved(int score, int[] path, long elapsed);
+	}
+
+	private final static int CLOCK_INTERVAL = 1024; // nodes between clock checks
+
+	private final long start; 			// System.nanoTime() at creation
+	private final long deadline; 		// System.nanoTime() to stop at
+	private final Listener listener; 	// may be null
+	private volatile boolean stopped = false;
+	private int countdown = CLOCK_INTERVAL; // nodes until the clock is read (updated racily)
+
+	private volatile int best = -1; 	// best complete solution so far
+	private volatile int[] bestPath = null; // a new copy for every improvement
+	private int openBound = -1; 		// highest bound of an abandoned node
+
+	/**
+	 * Creates a control without a time limit; the search only stops early
+	 * if {@link #cancel()} is called.
+	 *
+	 * @param listener
+	 *            receives improved solutions, or null
+	 */
+	public SearchControl(Listener listener) {
+		this(-1, listener);
+	}
+
+	/**
+	 * Creates a control that stops the search after a wall-clock budget.
+	 *
+	 * @param seconds
+	 *            the budget in seconds (negative for no limit)
+	 * @param listener
+	 *            receives improved solutions, or null
+	 */
+	public SearchControl(double seconds, Listener listener) {
+		this.start = System.nanoTime();
+		this.deadline = seconds < 0 ? Long.MAX_VALUE : start + (long) (seconds * 1e9);
+		this.listener = listener;
+	}
+
+	/**
+	 * Asks the search to stop as soon as possible. May be called from any
+	 * thread.
+	 */
+	public void cancel() {
+		stopped = true;
+	}
+
+	/**
+	 * Determine whether the search should stop, i.e. it has been cancelled
+	 * or has run out of time. Called by the search at every node; the clock
+	 * is only read every so many calls.
+	 *
+	 * @return true if the search should stop
+	 */
+	public boolean shouldStop() {
+		if (stopped)
+			return true;
+		if (--countdown <= 0) {
+			countdown = CLOCK_INTERVAL;
+			if (System.nanoTime() - deadline >= 0)
+				stopped = true;
+		}
+		return stopped;
+	}
+
+	/**
+	 * Determine whether the search was stopped before it was complete.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Records that a node is left unexplored because the search stopped.
+	 *
+	 * @param bound
+	 *            the optimistic score of the node
+	 */
+	public synchronized void abandon(int bound) {
+		if (bound > openBound)
+			openBound = bound;
+	}
+
+	/**
+	 * Offers a complete solution; it is kept (and the listener told) if it
+	 * is better than any so far.
+	 *
+	 * @param score
+	 *            the score of the solution
+	 * @param path
+	 *            the solution, copied if it is kept
+	 * @return true if it was the best so far
+	 */
+	public boolean offer(int score, int[] path) {
+		if (score <= best) // most offers are no better, so check before locking
+			return false;
+		synchronized (this) { // the listener is told of improvements in order
+			if (score <= best)
+				return false;
+			bestPath = Arrays.copyOf(path, path.length);
+			best = score; // after the path, so a reader of best sees a path as good
+			if (listener != null)
+				listener.improved(score, bestPath, getElapsed());
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieve the score of the best solution so far, or -1 if none.
+	 */
+	public int getBest() {
+		return best;
+	}
+
+	/**
+	 * Retrieve the best solution so far, or null if none.
+	 */
+	public int[] getBestPath() {
+		return bestPath;
+	}
+
+	/**
+	 * Retrieve how much better than the best solution so far the optimal
+	 * one could be: 0 if the search ran to completion, otherwise the
+	 * highest bound of an abandoned node less the best score.
+	 */
+	public synchronized int getGap() {
+		return Math.max(0, openBound - Math.max(best, 0));
+	}
+
+	/**
+	 * Retrieve nanoseconds since the control was created.
+	 */
+	public long getElapsed() {
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,209 @@
+package a2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events of the searches and of loading sequences, so
+ * that a recording shows what a search did next to what the GC and CPUs
+ * did at the time. They are recorded with e.g.
+ * <pre>
+ * java -XX:StartFlightRecording=filename=a2.jfr,settings=profile a2.A2App ...
+ * </pre>
+ * Each event is only created once JFR says it is enabled, so a search
+ * without a recording pays for one check. Prunes happen at most nodes and
+ * are disabled by default; enable a2.Prune in the recording settings to
+ * get them. Subtrees are only timed down to the depth set by
+ * {@link Alignment#setEventDepth(int)} or
+ * {@link Consensus#setEventDepth(int)}, and only those that take at least
+ * the threshold (1 ms by default) are recorded.
+ */
+public final class SearchEvents {
+
+	/**
+	 * The best score known to a search has risen.
+	 */
+	@Name("a2.Incumbent")
+	@Label("Incumbent")
+	@Category({ "A2", "Search" })
+	@Description("The best score known to a search has risen")
+	@StackTrace(false)
+	public static class Incumbent extends Event {
+		@Label("Search")
+		String search;
+		@Label("Level")
+		@Description("Number of sequences or symbols placed where the score was reached")
+		int level;
+		@Label("Score")
+		int score;
+	}
+
+	/**
+	 * A node has been pruned because it cannot beat the best score.
+	 */
+	@Name("a2.Prune")
+	@Label("Prune")
+	@Category({ "A2", "Search" })
+	@Description("A node that cannot beat the best score has been pruned")
+	@StackTrace(false)
+	@Enabled(false)
+	public static class Prune extends Event {
+		@Label("Search")
+		String search;
+		@Label("Level")
+		int level;
+		@Label("Bound")
+		@Description("The most any solution below the node can score")
+		int bound;
+		@Label("Score")
+		@Description("The score the node had to beat")
+		int score;
+	}
+
+	/**
+	 * The search below a node near the root has completed.
+	 */
+	@Name("a2.Subtree")
+	@Label("Subtree")
+	@Category({ "A2", "Search" })
+	@Description("The search below a node near the root has completed")
+	@StackTrace(false)
+	@Threshold("1 ms")
+	public static class Subtree extends Event {
+		@Label("Search")
+		String search;
+		@Label("Level")
+		int level;
+		@Label("Best")
+		@Description("The best score found below the node, or -1 if none beat the best score")
+		int best;
+	}
+
+	/**
+	 * A phase of loading sequences from a FASTA file.
+	 */
+	@Name("a2.FastaLoad")
+	@Label("FASTA Load")
+	@Category({ "A2", "Input" })
+	@Description("A phase of loading sequences from a FASTA file")
+	@StackTrace(false)
+	public static class FastaLoad extends Event {
+		@Label("File")
+		String file;
+		@Label("Phase")
+		@Description("open: opening the file, decode: reading its records")
+		String phase;
+		@Label("Bytes")
+		long bytes;
+		@Label("Sequences")
+		int sequences;
+	}
+
+	private SearchEvents() {
+	}
+
+	/**
+	 * Record a rise of the best score, if enabled.
+	 */
+	public static void incumbent(String search, int level, int score) {
+		Incumbent event = new Incumbent();
+		if (event.isEnabled()) {
+			event.search = search;
+			event.level = level;
+			event.score = score;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Record a prune, if enabled.
+	 */
+	public static void prune(String search, int level, int bound, int score) {
+		Prune event = new Prune();
+		if (event.isEnabled()) {
+			event.search = search;
+			event.level = level;
+			event.bound = bound;
+			event.score = score;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Start timing a subtree.
+	 *
+	 * @return the event to pass to {@link #endSubtree}, or null if subtree
+	 *         events are disabled
+	 */
+	public static Subtree beginSubtree(String search, int level) {
+		Subtree event = new Subtree();
+		if (!event.isEnabled())
+			return null;
+		event.search = search;
+		event.level = level;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Record a subtree started by {@link #beginSubtree}, if it took at least
+	 * the threshold.
+	 *
+	 * @param event
+	 *            the event, or null
+	 * @param best
+	 *            the best score found below the node, or -1
+	 */
+	public static void endSubtree(Subtree event, int best) {
+		if (event == null)
+			return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.best = best;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Start timing a phase of loading a FASTA file.
+	 *
+	 * @return the event to pass to {@link #endLoad}, or null if load events
+	 *         are disabled
+	 */
+	public static FastaLoad beginLoad(String file, String phase) {
+		FastaLoad event = new FastaLoad();
+		if (!event.isEnabled())
+			return null;
+		event.file = file;
+		event.phase = phase;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Record a phase started by {@link #beginLoad}.
+	 *
+	 * @param event
+	 *            the event, or null
+	 * @param bytes
+	 *            the size of the file
+	 * @param sequences
+	 *            the number of sequences read in the phase
+	 */
+	public static void endLoad(FastaLoad event, long bytes, int sequences) {
+		if (event == null)
+			return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.bytes = bytes;
+			event.sequences = sequences;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package a2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the nodes of one search and times it. Every meter has its own
+ * counters, so several searches can run in one JVM without mixing their
+ * figures. The counters are LongAdders: each thread of a parallel search
+ * mostly adds to a cell of its own, which neither loses counts nor makes
+ * the threads wait on one shared word, and they are longs, so long runs
+ * do not overflow. Time is taken from System.nanoTime(), which unlike the
+ * wall clock never jumps.
+ *
+ * The meter also holds the depth of the node entered last, for watching a
+ * running search. It is written with plain (opaque) stores, which order
+ * nothing and cost no more than writing a field, so a reader sees a recent
+ * depth of some thread rather than an exact one.
+ */
+public final class SearchMeter {
+
+	private final long start; 			// System.nanoTime() at creation
+	private volatile long end; 			// System.nanoTime() at stop
+	private volatile boolean stopped = false;
+	private final LongAdder finds = new LongAdder(); 		// nodes entered
+	private final LongAdder leaves = new LongAdder(); 		// exits at a complete solution
+	private final LongAdder breaks = new LongAdder(); 		// exits by pruning
+	private final LongAdder propagates = new LongAdder(); 	// exits after searching the children
+	private final AtomicInteger depth = new AtomicInteger(-1); // depth of the node entered last, or -1
+
+	/**
+	 * Creates a meter and starts its clock.
+	 */
+	public SearchMeter() {
+		start = System.nanoTime();
+	}
+
+	/**
+	 * Count a node entered.
+	 */
+	public void countFind() {
+		finds.increment();
+	}
+
+	/**
+	 * Count a node entered at a depth, and make it the current depth.
+	 *
+	 * @param depth
+	 *            the depth of the node (the root is at 0)
+	 */
+	public void countFind(int depth) {
+		finds.increment();
+		this.depth.setOpaque(depth);
+	}
+
+	/**
+	 * Count a node left because it cannot improve on the best solution.
+	 */
+	public void countBreak() {
+		breaks.increment();
+	}
+
+	/**
+	 * Count a node left at a complete solution.
+	 */
+	public void countLeaf() {
+		leaves.increment();
+	}
+
+	/**
+	 * Count a node left after its children were searched.
+	 */
+	public void countPropagate() {
+		propagates.increment();
+	}
+
+	/**
+	 * Stop the clock; counting may go on, but the elapsed time stays put.
+	 * Only the first call has an effect.
+	 */
+	public synchronized void stop() {
+		if (stopped)
+			return;
+		end = System.nanoTime();
+		stopped = true;
+	}
+
+	/**
+	 * Determine whether the clock has been stopped.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Retrieve the nanoseconds from creation until the clock was stopped,
+	 * or until now if it is still running.
+	 */
+	public long getElapsed() {
+		return (stopped ? end : System.nanoTime()) - start;
+	}
+
+	/**
+	 * Retrieve the number of nodes entered.
+	 */
+	public long getFinds() {
+		return finds.sum();
+	}
+
+	/**
+	 * Retrieve the depth of the node entered last by any thread.
+	 *
+	 * @return the depth, or -1 if no node has been entered at a known depth
+	 */
+	public int getDepth() {
+		return depth.getOpaque();
+	}
+
+	/**
+	 * Retrieve the number of nodes left at a complete solution.
+	 */
+	public long getLeaves() {
+		return leaves.sum();
+	}
+
+	/**
+	 * Retrieve the number of nodes pruned.
+	 */
+	public long getBreaks() {
+		return breaks.sum();
+	}
+
+	/**
+	 * Retrieve the number of nodes left after searching their children.
+	 */
+	public long getPropagates() {
+		return propagates.sum();
+	}
+
+	/**
+	 * Determine the rate of the search so far.
+	 *
+	 * @return nodes entered per second of elapsed time
+	 */
+	public double getNodeRate() {
+		long elapsed = getElapsed();
+		return elapsed > 0 ? getFinds() * 1e9 / elapsed : 0;
+	}
+}
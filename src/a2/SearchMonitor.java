@@ -0,0 +1,121 @@
+package a2;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Shows a running search over JMX, so that JConsole can watch a long run
+ * and cancel it. Registered on the platform MBean server as
+ * a2:type=Search,name=alignment (or consensus).
+ *
+ * Everything is read from what the search keeps anyway: the counters and
+ * current depth of its {@link SearchMeter}, and the best solution and
+ * cancel flag of its {@link SearchControl}. The counters are summed
+ * without locking them and the solution is a volatile read, so watching
+ * the search does not slow it down. Reading an attribute changes nothing,
+ * so any number of clients can watch at once.
+ */
+public class SearchMonitor implements SearchMonitorMBean {
+
+	private final String search; 			// "alignment" or "consensus"
+	private final SearchMeter meter;
+	private final SearchControl control;
+	private ObjectName name = null; 		// set while registered
+
+	/**
+	 * Creates a monitor of a search.
+	 *
+	 * @param search
+	 *            "alignment" or "consensus"
+	 * @param meter
+	 *            the counters of the search
+	 * @param control
+	 *            the control of the search
+	 */
+	public SearchMonitor(String search, SearchMeter meter, SearchControl control) {
+		this.search = search;
+		this.meter = meter;
+		this.control = control;
+	}
+
+	/**
+	 * Register on the platform MBean server.
+	 *
+	 * @return the name registered under
+	 */
+	public synchronized ObjectName register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			name = new ObjectName("a2:type=Search,name=" + search);
+			if (server.isRegistered(name)) // left by an earlier search
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			throw new RuntimeException("Cannot register " + name + ": " + e.getMessage());
+		}
+		return name;
+	}
+
+	/**
+	 * Remove the registration made by {@link #register()}, if any.
+	 */
+	public synchronized void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// already gone
+		}
+		name = null;
+	}
+
+	public int getIncumbentScore() {
+		return control.getBest();
+	}
+
+	public String getIncumbentPath() {
+		int[] path = control.getBestPath();
+		if (path == null)
+			return "";
+		if (!search.startsWith("c"))
+			return Arrays.toString(path);
+		StringBuilder sbuf = new StringBuilder();
+		for (int symbol : path)
+			sbuf.append(Sequence.toChar(symbol));
+		return sbuf.toString();
+	}
+
+	public double getNodeRate() {
+		return meter.getNodeRate();
+	}
+
+	public long getNodes() {
+		return meter.getFinds();
+	}
+
+	public double getPruneRatio() {
+		long nodes = meter.getFinds();
+		return nodes > 0 ? (double) meter.getBreaks() / nodes : 0;
+	}
+
+	public int getCurrentDepth() {
+		return meter.getDepth();
+	}
+
+	public double getElapsedSeconds() {
+		return meter.getElapsed() / 1e9;
+	}
+
+	public boolean isStopped() {
+		return control.isStopped();
+	}
+
+	public void cancel() {
+		control.cancel();
+	}
+}
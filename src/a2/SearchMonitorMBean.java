@@ -0,0 +1,54 @@
+package a2;
+
+/**
+ * The management interface of a running search, as shown by JConsole (see
+ * {@link SearchMonitor}).
+ */
+public interface SearchMonitorMBean {
+
+	/**
+	 * The score of the best complete solution so far, or -1 if none.
+	 */
+	int getIncumbentScore();
+
+	/**
+	 * The best complete solution so far: the consensus, or the offset index
+	 * of each sequence of an alignment; empty if none.
+	 */
+	String getIncumbentPath();
+
+	/**
+	 * The nodes entered per second since the search started.
+	 */
+	double getNodeRate();
+
+	/**
+	 * The number of nodes entered so far.
+	 */
+	long getNodes();
+
+	/**
+	 * The fraction of the nodes entered so far that were pruned.
+	 */
+	double getPruneRatio();
+
+	/**
+	 * The depth of the node the search entered last, or -1 if none.
+	 */
+	int getCurrentDepth();
+
+	/**
+	 * The seconds since the search started.
+	 */
+	double getElapsedSeconds();
+
+	/**
+	 * True once the search has been cancelled or run out of time.
+	 */
+	boolean isStopped();
+
+	/**
+	 * Stop the search; it returns the best solution found so far.
+	 */
+	void cancel();
+}
@@ -1,13 +1,10 @@
 package a2;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.stream.Stream;
 
 /**
  * A class for representing biological sequence data
@@ -17,10 +14,16 @@ public class Sequence {
 	public final static char[] alpha = {'A', 'C', 'G', 'T'}; // valid characters, mapping to index + 1
 	public static int  toIndex(char ch)  { for (int i = 0; i < alpha.length; i ++) { if (alpha[i] == ch) return i + 1; } return 0; } 
 	public static char toChar(int index) { if (index > 0 && index <= alpha.length) return alpha[index - 1]; return ' '; }
+
+	public final static int BITS_PER_SYMBOL  = 2;  // each symbol is stored as its index - 1 (A=0, C=1, G=2, T=3)
+	public final static int SYMBOLS_PER_WORD = Long.SIZE / BITS_PER_SYMBOL;
+	private final static long SYMBOL_MASK = (1L << BITS_PER_SYMBOL) - 1;
+	private final static long LOW_BITS    = 0x5555555555555555L; // lowest bit of every symbol
 	
 	private final String name; 			// name of sequence
-	private final int[]  seq_orig; 		// original sequence of symbols represented by index
-	private final int[]  seq_reverse; 	// sequence of symbols of reverse strand represented by index
+	private final int    length; 		// number of symbols
+	private final long[] packed_orig; 	// original sequence, 2 bits per symbol, symbol i at bits 2*(i%32) of word i/32
+	private final long[] packed_reverse;// reverse complement strand packed the same way
 
 	/**
 	 * Constructs a DNA sequence instance.
@@ -34,15 +37,56 @@ public class Sequence {
 	 */
 	public Sequence(String name, char[] string) {
 		this.name = name;
+		this.length = string.length;
 		// convert to index and check that the sequence is valid
-		this.seq_orig = new int[string.length];
-		this.seq_reverse = new int[string.length];
-		for (int i = 0; i < seq_orig.length; i++) {
-			this.seq_orig[i] = Sequence.toIndex(string[i]);
-			this.seq_reverse[seq_orig.length - 1 - i] = alpha.length + 1 - Sequence.toIndex(string[i]);
-			if (seq_orig[i] == 0 || seq_reverse[i] == 5)
+		this.packed_orig = new long[wordsFor(length)];
+		for (int i = 0; i < length; i++) {
+			int index = Sequence.toIndex(string[i]);
+			if (index == 0)
 				throw new SequenceRuntimeException("Invalid character in sequence: "+string[i]); 
+			packed_orig[i / SYMBOLS_PER_WORD] |= (long) (index - 1) << ((i % SYMBOLS_PER_WORD) * BITS_PER_SYMBOL);
+		}
+		this.packed_reverse = reverseComplement(packed_orig, length);
+	}
+
+	/**
+	 * Constructs a DNA sequence instance from symbols that are already packed
+	 * (see {@link #getPackedWords(boolean)} for the layout). The array is
+	 * used as is, not copied.
+	 * 
+	 * @param name
+	 *            the name of the sequence
+	 * @param packed
+	 *            the packed symbols of the original strand
+	 * @param length
+	 *            the number of symbols in packed
+	 */
+	Sequence(String name, long[] packed, int length) {
+		this.name = name;
+		this.length = length;
+		this.packed_orig = packed;
+		this.packed_reverse = reverseComplement(packed, length);
+	}
+
+	/**
+	 * Number of words needed to pack the specified number of symbols.
+	 */
+	public static int wordsFor(int length) {
+		return (length + SYMBOLS_PER_WORD - 1) / SYMBOLS_PER_WORD;
+	}
+
+	/**
+	 * Pack the reverse complement of a packed strand. The complement of a
+	 * symbol code c is 3 - c (A-T, C-G).
+	 */
+	private static long[] reverseComplement(long[] packed, int length) {
+		long[] rev = new long[wordsFor(length)];
+		for (int i = 0; i < length; i++) {
+			long code = SYMBOL_MASK - codeAt(packed, i);
+			int pos = length - 1 - i;
+			rev[pos / SYMBOLS_PER_WORD] |= code << ((pos % SYMBOLS_PER_WORD) * BITS_PER_SYMBOL);
 		}
+		return rev;
 	}
 
 	/**
@@ -57,8 +101,8 @@ public class Sequence {
 	 *             if an invalid position is given
 	 */
 	public int getSymbolIndex(int position, boolean strand) {
-		if (position >= 0 && position < seq_orig.length)
-			return strand ? seq_orig[position] : seq_reverse[position];
+		if (position >= 0 && position < length)
+			return codeAt(strand ? packed_orig : packed_reverse, position) + 1;
 		else
 			throw new SequenceRuntimeException(this,
 					"Attempt to retrieve invalid index " + position + " in \"" + name + "\"");
@@ -66,12 +110,127 @@ public class Sequence {
 
 	/**
 	 * Retrieves the indices of all the symbols in the sequence 0..n-1 where n
-	 * is the length of the sequence
+	 * is the length of the sequence. Note: the indices are unpacked into a new
+	 * array on every call; scoring loops should use
+	 * {@link #getPackedWords(boolean)} instead.
 	 * 
 	 * @return the indices
 	 */
 	public int[] getSymbolIndices(boolean strand) {
-		return strand ? seq_orig : seq_reverse;
+		long[] packed = strand ? packed_orig : packed_reverse;
+		int[] indices = new int[length];
+		for (int i = 0; i < length; i ++)
+			indices[i] = codeAt(packed, i) + 1;
+		return indices;
+	}
+
+	/**
+	 * Retrieves the packed symbols of a strand, {@link #SYMBOLS_PER_WORD} per
+	 * word. Symbol i is held as its index - 1 in bits 2*(i%32) and up of
+	 * word i/32; bits past the end of the sequence are zero. The array is
+	 * shared and must not be modified.
+	 * 
+	 * @param strand
+	 * 			  the original (True) or reverse strand (False)
+	 * @return the packed words
+	 */
+	public long[] getPackedWords(boolean strand) {
+		return strand ? packed_orig : packed_reverse;
+	}
+
+	/**
+	 * Retrieves the symbol code (index - 1) at a position of a packed array.
+	 * 
+	 * @param packed
+	 *            packed symbols
+	 * @param position
+	 *            the position of the symbol
+	 * @return the symbol code 0..3
+	 */
+	public static int codeAt(long[] packed, int position) {
+		return (int) (packed[position / SYMBOLS_PER_WORD] >>> ((position % SYMBOLS_PER_WORD) * BITS_PER_SYMBOL) & SYMBOL_MASK);
+	}
+
+	/**
+	 * Packs an array of symbol indices (A=1, C=2, G=3 and T=4), e.g. a
+	 * consensus or prefix, in the layout of {@link #getPackedWords(boolean)}.
+	 * 
+	 * @param indices
+	 *            the symbol indices
+	 * @param length
+	 *            the number of indices to pack (the rest are left as zero)
+	 * @return the packed words
+	 */
+	public static long[] pack(int[] indices, int length) {
+		long[] packed = new long[wordsFor(indices.length)];
+		for (int i = 0; i < length; i++)
+			packed[i / SYMBOLS_PER_WORD] |= (long) (indices[i] - 1) << ((i % SYMBOLS_PER_WORD) * BITS_PER_SYMBOL);
+		return packed;
+	}
+
+	/**
+	 * Retrieves the {@link #SYMBOLS_PER_WORD} symbols starting at an arbitrary
+	 * position of a packed array as a single word. Positions past the end of
+	 * the array read as zero.
+	 * 
+	 * @param packed
+	 *            packed symbols
+	 * @param position
+	 *            the position of the first symbol
+	 * @return the word holding symbols position.. in its low bits upwards
+	 */
+	public static long wordAt(long[] packed, int position) {
+		int word = position / SYMBOLS_PER_WORD;
+		int shift = (position % SYMBOLS_PER_WORD) * BITS_PER_SYMBOL;
+		if (word >= packed.length)
+			return 0;
+		long bits = packed[word] >>> shift;
+		if (shift != 0 && word + 1 < packed.length)
+			bits |= packed[word + 1] << (Long.SIZE - shift);
+		return bits;
+	}
+
+	/**
+	 * Counts the symbols that are the same in the lowest n symbols of two
+	 * packed words.
+	 * 
+	 * @param a
+	 *            packed symbols
+	 * @param b
+	 *            packed symbols
+	 * @param n
+	 *            number of symbols to compare (0..32)
+	 * @return the number of matching symbols
+	 */
+	public static int countMatches(long a, long b, int n) {
+		long x = a ^ b;
+		long diff = (x | (x >>> 1)) & LOW_BITS; // one bit set for each symbol that differs
+		if (n < SYMBOLS_PER_WORD)
+			diff &= (1L << (n * BITS_PER_SYMBOL)) - 1;
+		return n - Long.bitCount(diff);
+	}
+
+	/**
+	 * Counts the matching symbols when a packed sequence is laid over a packed
+	 * consensus, starting at the specified consensus position.
+	 * 
+	 * @param seq
+	 *            the packed sequence
+	 * @param consensus
+	 *            the packed consensus
+	 * @param offset
+	 *            the consensus position of the first sequence symbol
+	 * @param n
+	 *            the number of sequence symbols to compare
+	 * @return the number of matching symbols
+	 */
+	public static int countMatches(long[] seq, long[] consensus, int offset, int n) {
+		int matches = 0;
+		for (int k = 0; n > 0; k++, n -= SYMBOLS_PER_WORD) {
+			matches += countMatches(seq[k], wordAt(consensus, offset + k * SYMBOLS_PER_WORD),
+					Math.min(n, SYMBOLS_PER_WORD));
+		}
+		return matches;
 	}
 
 	/**
@@ -81,9 +240,10 @@ public class Sequence {
 	 * @return the printable characters
 	 */
 	public char[] getSymbolChars(boolean strand) {
-		char[] str = new char[seq_orig.length];
-		for (int i = 0; i < seq_orig.length; i ++) 
-			str[i] = strand ? toChar(seq_orig[i]) : toChar(seq_reverse[i]);
+		long[] packed = strand ? packed_orig : packed_reverse;
+		char[] str = new char[length];
+		for (int i = 0; i < length; i ++) 
+			str[i] = alpha[codeAt(packed, i)];
 		return str;
 	}
 
@@ -106,14 +266,14 @@ public class Sequence {
 	 * @return the length (number of symbols)
 	 */
 	public int getLength() {
-		return seq_orig.length;
+		return length;
 	}
 
 	/**
 	 * Printable representation of sequence
 	 */
 	public String toString() {
-		return name + " (" + seq_orig.length + ")";
+		return name + " (" + length + ")";
 	}
 
 	/**
@@ -127,71 +287,66 @@ public class Sequence {
 	 */
 	public static Sequence[] readFile(String filename) throws IOException {
 		List<Sequence> seqs = new ArrayList<Sequence>();
-		BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-		// buffer variables to hold recently read data
-		String name = null;
-		StringBuffer buf = null;
-
-		int row = 0;
-		String line = br.readLine();
-		while (line != null) {
-			row++;
-			line = line.trim(); // remove any spaces, tabs etc at the ends
-			if (line.startsWith(">")) {
-				if (buf != null) // there is data in the buffer, we need to
-				// store it before processing the new entry
-				{
-					try {
-						seqs.add(new Sequence(name, buf.toString().toCharArray()));
-					} catch (SequenceRuntimeException e) {
-						System.err.println("Ignored " + name + ": " + e.getMessage());
-					}
-					buf = null;
-					name = null;
-				}
-				try {
-					StringTokenizer stok = new StringTokenizer(line, " \t");
-					name = stok.nextToken().substring(1);
-				} catch (NoSuchElementException e) {
-					throw new RuntimeException("Invalid format in file " + filename + " at row " + row);
-				}
-				buf = new StringBuffer();
-			} else {
-				if (buf != null) {
-					buf.append(line);
-				}
+		// the file is mapped and decoded straight into packed symbols
+		SearchEvents.FastaLoad phase = SearchEvents.beginLoad(filename, "open");
+		FastaReader reader = new FastaReader(filename);
+		SearchEvents.endLoad(phase, reader.getSize(), 0);
+		phase = SearchEvents.beginLoad(filename, "decode");
+		try {
+			Sequence seq = reader.next();
+			while (seq != null) {
+				seqs.add(seq);
+				seq = reader.next();
 			}
-			line = br.readLine();
-		}
-		if (buf != null) // there is data in the buffer, we need to store it
-						 // before processing the new entry
-		{
-			try {
-				seqs.add(new Sequence(name, buf.toString().toCharArray()));
-			} catch (SequenceRuntimeException e) {
-				System.err.println("Ignored " + name + ": " + e.getMessage());
-			}
-			buf = null;
-			name = null;
+		} finally {
+			reader.close();
 		}
+		SearchEvents.endLoad(phase, reader.getSize(), seqs.size());
 		Sequence[] all = new Sequence[seqs.size()];
 		seqs.toArray(all);
 		return all;
 	}
 
+	/**
+	 * Streams DNA sequences from a file on the FASTA standard format without
+	 * loading the whole file, e.g.
+	 * <pre>
+	 * try (Stream&lt;Sequence&gt; seqs = Sequence.stream(filename)) {
+	 *     long n = seqs.filter(s -&gt; s.getLength() &gt; 10).count();
+	 * }
+	 * </pre>
+	 * The stream should be closed to release the file.
+	 * 
+	 * @param filename
+	 *            the name of the file
+	 * @return a stream of instances of {@link Sequence}, in file order
+	 * @throws IOException
+	 *             if the file cannot be opened (read errors during the
+	 *             stream are thrown as {@link java.io.UncheckedIOException})
+	 */
+	public static Stream<Sequence> stream(String filename) throws IOException {
+		return new FastaReader(filename).stream();
+	}
+
 	/**
 	 * Example application that simply loads a FASTA file and prints out the
-	 * sequences in it.
+	 * sequences in it. Sequences are streamed, so any size of file can be
+	 * listed.
 	 * 
 	 * @param args
 	 */
 	public static void main(String[] args) {
 		for (int i = 0; i < args.length; i++) {
 			try {
-				Sequence[] seqs = Sequence.readFile(args[i]);
-				System.out.println("Read " + seqs.length + " sequences from " + args[i]);
-				for (Sequence s : seqs)
-					System.out.println(s);
+				Stream<Sequence> seqs = Sequence.stream(args[i]);
+				try {
+					long count = 0;
+					for (Iterator<Sequence> it = seqs.iterator(); it.hasNext(); count++)
+						System.out.println(it.next());
+					System.out.println("Read " + count + " sequences from " + args[i]);
+				} finally {
+					seqs.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 				System.exit(1);
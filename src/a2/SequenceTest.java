@@ -0,0 +1,138 @@
+package a2;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SequenceTest {
+
+	// around the word boundaries of 32 symbols
+	int[] lengths = { 1, 5, 31, 32, 33, 63, 64, 65, 100 };
+	Random random = new Random(11);
+
+	private char[] randomSymbols(int length) {
+		char[] symbols = new char[length];
+		for (int i = 0; i < length; i++)
+			symbols[i] = Sequence.alpha[random.nextInt(Sequence.alpha.length)];
+		return symbols;
+	}
+
+	private static char complement(char symbol) {
+		return Sequence.toChar(5 - Sequence.toIndex(symbol));
+	}
+
+	@Test
+	public void testPackUnpack() {
+		for (int length : lengths) {
+			char[] symbols = randomSymbols(length);
+			Sequence seq = new Sequence("S", symbols);
+			assertEquals(length, seq.getLength());
+			// the original strand as given, the reverse strand complemented backwards
+			char[] reverse = new char[length];
+			for (int i = 0; i < length; i++)
+				reverse[i] = complement(symbols[length - 1 - i]);
+			assertTrue(Arrays.equals(symbols, seq.getSymbolChars(true)));
+			assertTrue(Arrays.equals(reverse, seq.getSymbolChars(false)));
+			for (boolean strand : new boolean[] { true, false }) {
+				long[] packed = seq.getPackedWords(strand);
+				assertEquals(Sequence.wordsFor(length), packed.length);
+				int[] indices = seq.getSymbolIndices(strand);
+				for (int i = 0; i < length; i++) {
+					assertEquals(indices[i], seq.getSymbolIndex(i, strand));
+					assertEquals(indices[i] - 1, Sequence.codeAt(packed, i));
+					assertEquals((strand ? symbols : reverse)[i], seq.getSymbolChar(i, strand));
+				}
+				// packing the indices again gives the same words, zero past the end
+				assertTrue(Arrays.equals(packed, Sequence.pack(indices, length)));
+				if (length % Sequence.SYMBOLS_PER_WORD != 0)
+					assertEquals(0, packed[packed.length - 1] >>> (length % Sequence.SYMBOLS_PER_WORD * Sequence.BITS_PER_SYMBOL));
+			}
+		}
+	}
+
+	@Test
+	public void testPackPrefix() {
+		// only the first length indices are packed, the rest read as A
+		int[] indices = { 4, 3, 2, 1, 4, 4 };
+		long[] packed = Sequence.pack(indices, 3);
+		assertEquals(3, Sequence.codeAt(packed, 0));
+		assertEquals(2, Sequence.codeAt(packed, 1));
+		assertEquals(1, Sequence.codeAt(packed, 2));
+		assertEquals(0, Sequence.codeAt(packed, 3));
+		assertEquals(0, Sequence.codeAt(packed, 5));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInvalidSymbol() {
+		new Sequence("S", "ACGN".toCharArray());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInvalidPosition() {
+		new Sequence("S", "ACGT".toCharArray()).getSymbolIndex(4, true);
+	}
+
+	@Test
+	public void testWordAt() {
+		for (int length : lengths) {
+			Sequence seq = new Sequence("S", randomSymbols(length));
+			for (boolean strand : new boolean[] { true, false }) {
+				long[] packed = seq.getPackedWords(strand);
+				// every start, including 31, 32 and 33 across the boundary
+				for (int position = 0; position < length + Sequence.SYMBOLS_PER_WORD; position++) {
+					long word = Sequence.wordAt(packed, position);
+					for (int k = 0; k < Sequence.SYMBOLS_PER_WORD; k++) {
+						int expected = position + k < length ? Sequence.codeAt(packed, position + k) : 0;
+						assertEquals(expected, (int) (word >>> (k * Sequence.BITS_PER_SYMBOL) & 3));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCountMatchesWord() {
+		for (int trial = 0; trial < 100; trial++) {
+			long a = random.nextLong();
+			long b = random.nextBoolean() ? random.nextLong() : a ^ (1L << random.nextInt(Long.SIZE));
+			for (int n = 0; n <= Sequence.SYMBOLS_PER_WORD; n++) {
+				int expected = 0;
+				for (int k = 0; k < n; k++)
+					if ((a >>> (2 * k) & 3) == (b >>> (2 * k) & 3))
+						expected++;
+				assertEquals(expected, Sequence.countMatches(a, b, n));
+			}
+		}
+		assertEquals(Sequence.SYMBOLS_PER_WORD, Sequence.countMatches(-1L, -1L, Sequence.SYMBOLS_PER_WORD));
+		assertEquals(0, Sequence.countMatches(0L, -1L, Sequence.SYMBOLS_PER_WORD));
+	}
+
+	@Test
+	public void testCountMatches() {
+		for (int length : lengths) {
+			Sequence seq = new Sequence("S", randomSymbols(length));
+			// a consensus of random symbols that mostly match the sequence
+			int W = length + 40;
+			for (boolean strand : new boolean[] { true, false }) {
+				int[] indices = seq.getSymbolIndices(strand);
+				for (int offset = 0; offset + length <= W; offset++) {
+					int[] consensus = new int[W];
+					for (int j = 0; j < W; j++)
+						consensus[j] = 1 + random.nextInt(4);
+					for (int i = 0; i < length; i++)
+						if (random.nextInt(3) > 0)
+							consensus[offset + i] = indices[i];
+					int expected = 0;
+					for (int i = 0; i < length; i++)
+						if (consensus[offset + i] == indices[i])
+							expected++;
+					assertEquals(expected, Sequence.countMatches(seq.getPackedWords(strand),
+							Sequence.pack(consensus, W), offset, length));
+				}
+			}
+		}
+	}
+}
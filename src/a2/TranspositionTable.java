@@ -0,0 +1,111 @@
+package a2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size table of the subtrees an {@link Alignment} search has
+ * resolved. Different assignments of offsets often give the same profile,
+ * e.g. when sequences are identical, and the search below a node only
+ * depends on its profile and level. So once a subtree has been searched,
+ * the table remembers the most that any alignment in it can score, and a
+ * node with the same profile that cannot beat the best score is pruned.
+ *
+ * Nodes are identified by a 64-bit key that the search computes from the
+ * profile (see {@link Alignment#setTranspositionTable}); the table does not
+ * see the profile itself, so two profiles with the same key are taken to
+ * be the same. Each key maps to one slot, and a newer entry replaces
+ * whatever the slot held.
+ *
+ * The table is shared by all threads of a parallel search without
+ * locking: a slot holds the key XORed with the data next to the data, so
+ * a slot torn by two threads writing at once fails the key check and is
+ * read as empty.
+ */
+public class TranspositionTable {
+
+	private final long[] slots; 	// [2 * i]: key ^ data, [2 * i + 1]: data
+	private final int mask; 		// number of slots - 1
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param bits
+	 *            the table has 2^bits slots of 16 bytes each, at most 2^29
+	 *            (two longs each must fit in one array)
+	 */
+	public TranspositionTable(int bits) {
+		if (bits < 0 || bits > 29)
+			throw new RuntimeException("Invalid transposition table size: 2^" + bits);
+		this.slots = new long[2 << bits];
+		this.mask = (1 << bits) - 1;
+	}
+
+	/**
+	 * Look up the bound of a node.
+	 *
+	 * @param key
+	 *            the key of the node
+	 * @param level
+	 *            the number of sequences placed at the node
+	 * @return the most any alignment below the node can score, or
+	 *         Integer.MAX_VALUE if the node is not in the table
+	 */
+	public int probe(long key, int level) {
+		probes.increment();
+		int i = ((int) key & mask) << 1;
+		long data = slots[i + 1];
+		if ((slots[i] ^ data) != key || (int) (data >>> 32) != level)
+			return Integer.MAX_VALUE;
+		hits.increment();
+		return (int) data;
+	}
+
+	/**
+	 * Remember the bound of a node whose subtree has been searched.
+	 *
+	 * @param key
+	 *            the key of the node
+	 * @param level
+	 *            the number of sequences placed at the node
+	 * @param bound
+	 *            the most any alignment below the node can score
+	 */
+	public void store(long key, int level, int bound) {
+		stores.increment();
+		int i = ((int) key & mask) << 1;
+		long data = ((long) level << 32) | (bound & 0xffffffffL);
+		slots[i] = key ^ data;
+		slots[i + 1] = data;
+	}
+
+	/**
+	 * Retrieve the number of look-ups so far.
+	 */
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	/**
+	 * Retrieve the number of look-ups that found their node.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Retrieve the number of entries written so far.
+	 */
+	public long getStores() {
+		return stores.sum();
+	}
+
+	/**
+	 * Retrieve the memory taken by the slots, in bytes.
+	 */
+	public long getBytes() {
+		return slots.length * 8L;
+	}
+}
@@ -0,0 +1,97 @@
+package a2;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link ScoreKernel} on the vector API: each step handles as many
+ * sequences as the CPU has int lanes, and only the last step masks off
+ * the lanes past the last sequence. Both strands of a run of sequences are
+ * read in the same pass, so the best strand is taken lane by lane, and the
+ * lanes are summed once at the end.
+ *
+ * This class is kept out of src so that the application builds without the
+ * incubator module. It is compiled on its own, after the other classes:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp classes -d classes vector/a2/*.java
+ * </pre>
+ * and used with "java --add-modules jdk.incubator.vector ... -k vector";
+ * {@link ScoreKernel.Factory} only loads it if it has been compiled and
+ * the module is present.
+ */
+public class VectorScoreKernel implements ScoreKernel {
+
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	private final int T; 		// number of sequences
+	private final int rows; 	// number of rows (T times the number of strands)
+	private final int offsets; 	// number of offsets
+	private int bound;
+
+	public VectorScoreKernel(int T, int strands, int offsets) {
+		this.T = T;
+		this.rows = T * strands;
+		this.offsets = offsets;
+	}
+
+	public int fill(int[] from, int[] to, int[][] codes, int level, int code, int lo, int hi, int[] open) {
+		System.arraycopy(from, 0, to, 0, to.length);
+		IntVector totscore = IntVector.zero(INTS);
+		IntVector totbound = IntVector.zero(INTS);
+		int full = INTS.loopBound(T); // sequences in whole vectors
+		for (int j = 0; j < full; j += INTS.length()) {
+			for (int i = lo; i <= hi; i++) { // add the new symbol where it matches
+				int[] symbols = codes[level - i];
+				for (int r = j; r < rows; r += T) {
+					IntVector count = IntVector.fromArray(INTS, to, i * rows + r);
+					VectorMask<Integer> match = IntVector.fromArray(INTS, symbols, r).compare(VectorOperators.EQ, code);
+					count.add(1, match).intoArray(to, i * rows + r);
+				}
+			}
+			IntVector bestscore = IntVector.zero(INTS); // the best offset and strand of each sequence
+			IntVector bestbound = IntVector.zero(INTS);
+			for (int r = j; r < rows; r += T)
+				for (int i = 0; i < offsets; i++) {
+					IntVector count = IntVector.fromArray(INTS, to, i * rows + r);
+					bestscore = bestscore.max(count);
+					bestbound = bestbound.max(count.add(open[i]));
+				}
+			totscore = totscore.add(bestscore);
+			totbound = totbound.add(bestbound);
+		}
+		if (full < T) { // the same for the last sequences, masking the lanes past T
+			VectorMask<Integer> tail = INTS.indexInRange(full, T);
+			for (int i = lo; i <= hi; i++) {
+				int[] symbols = codes[level - i];
+				for (int r = full; r < rows; r += T) {
+					IntVector count = IntVector.fromArray(INTS, to, i * rows + r, tail);
+					VectorMask<Integer> match = IntVector.fromArray(INTS, symbols, r, tail)
+							.compare(VectorOperators.EQ, code).and(tail);
+					count.add(1, match).intoArray(to, i * rows + r, tail);
+				}
+			}
+			IntVector bestscore = IntVector.zero(INTS);
+			IntVector bestbound = IntVector.zero(INTS);
+			for (int r = full; r < rows; r += T)
+				for (int i = 0; i < offsets; i++) {
+					IntVector count = IntVector.fromArray(INTS, to, i * rows + r, tail);
+					bestscore = bestscore.max(count);
+					bestbound = bestbound.max(count.add(open[i]));
+				}
+			totscore = totscore.add(bestscore, tail);
+			totbound = totbound.add(bestbound, tail);
+		}
+		bound = totbound.reduceLanes(VectorOperators.ADD);
+		return totscore.reduceLanes(VectorOperators.ADD);
+	}
+
+	public int getBound() {
+		return bound;
+	}
+
+	public String toString() {
+		return "vector " + INTS.length() + " x int";
+	}
+}